@@ -0,0 +1,316 @@
+package io.moderne.recipes;
+
+import lombok.EqualsAndHashCode;
+import lombok.Value;
+import org.openrewrite.Cursor;
+import org.openrewrite.Tree;
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.tree.*;
+
+import java.util.Set;
+
+import static io.moderne.recipes.NonOverridableMethodsNoInstanceDataToStaticRecipe.isExplicitThis;
+import static io.moderne.recipes.NonOverridableMethodsNoInstanceDataToStaticRecipe.isNameable;
+
+// When an own type is given, the visitor only looks for access to the instances of the enclosing classes:
+// members of the own type (inherited ones too) and of the classes nested in it are not instance access.
+// When parsed without a complete classpath, the types the parser could not find are unknown, and whatever the body
+// uses from them is assumed to be instance access.
+@Value
+@EqualsAndHashCode(callSuper = true)
+class AccessInstanceDataVisitor extends ChainVisitor<InstanceAccess> {
+    // Instance fields that become static in this run
+    Set<JavaType.Variable> staticFields;
+
+    TimeBudget timeBudget;
+
+    @Nullable
+    JavaType.FullyQualified ownType;
+
+    // Some superclass of the enclosing classes is unknown, so are the fields inherited from it
+    boolean unresolvedSuperclass;
+
+    static InstanceAccess find(@Nullable J.Block body, Set<JavaType.Variable> staticFields, TimeBudget timeBudget, boolean unresolvedSuperclass) {
+        return find(body, staticFields, timeBudget, null, unresolvedSuperclass);
+    }
+
+    static InstanceAccess find(@Nullable J.Block body, Set<JavaType.Variable> staticFields, TimeBudget timeBudget, @Nullable JavaType.FullyQualified ownType,
+                               boolean unresolvedSuperclass) {
+        return new AccessInstanceDataVisitor(staticFields, timeBudget, ownType, unresolvedSuperclass).reduce(body, new InstanceAccess());
+    }
+
+    // The parser leaves out the superclass it cannot find: the class then has no superclass at all, as only interfaces
+    // and `java.lang.Object` have.
+    static boolean hasUnresolvedSuperclass(@Nullable JavaType.FullyQualified type) {
+        if (type == null || type instanceof JavaType.Unknown) {
+            return true;
+        }
+        for (JavaType.FullyQualified t = type; t != null; t = t.getSupertype()) {
+            if (t instanceof JavaType.Unknown ||
+                    t.getKind() == JavaType.FullyQualified.Kind.Class && t.getSupertype() == null && !"java.lang.Object".equals(t.getFullyQualifiedName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Methods that may become static. Those of private classes are taken too: if the class is extended, its methods
+    // are not candidates, and the invocation is found to depend on a method that stays non-static.
+    private static boolean isNonOverridable(JavaType.Method methodType) {
+        return methodType.hasFlags(Flag.Private) || methodType.hasFlags(Flag.Final) ||
+                methodType.getDeclaringType().hasFlags(Flag.Final) || methodType.getDeclaringType().hasFlags(Flag.Private);
+    }
+
+    private boolean isOwnType(@Nullable JavaType.FullyQualified type) {
+        if (this.ownType == null) {
+            return false;
+        }
+        for (JavaType.FullyQualified t = type; t != null; t = t.getOwningClass()) {
+            if (TypeUtils.isAssignableTo(t.getFullyQualifiedName(), this.ownType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public @Nullable J visit(@Nullable Tree tree, InstanceAccess instanceAccess) {
+        // Once we run out of time, we consider the body as instance access, so the method is never modified,
+        // and we stop the traversal right away.
+        if (!instanceAccess.get() && this.timeBudget.isExhausted()) {
+            instanceAccess.set();
+        }
+        if (instanceAccess.get()) {
+            return (J) tree;
+        }
+        return super.visit(tree, instanceAccess);
+    }
+
+
+    @Override
+    public J.Identifier visitIdentifier(J.Identifier id, InstanceAccess instanceAccess) {
+        // Return quickly if we already found an instance access before
+        if (instanceAccess.get()) {
+            return id;
+        }
+
+        J.Identifier identifier = super.visitIdentifier(id, instanceAccess);
+
+        Cursor parent = getCursor().getParent();
+        if (parent != null) {
+            // Discard if the identifier is a NamedVariable
+            if (parent.getValue() instanceof J.VariableDeclarations.NamedVariable) {
+                return identifier;
+            }
+
+            // Discard if the identifier is a ParametrizedType
+            if (parent.getValue() instanceof J.ParameterizedType) {
+                return identifier;
+            }
+
+            // Discard if the identifier is a ClassDeclaration
+            if (parent.getValue() instanceof J.ClassDeclaration) {
+                return identifier;
+            }
+
+            // Discard if the identifier is a MethodDeclaration
+            if (parent.getValue() instanceof J.MethodDeclaration) {
+                return identifier;
+            }
+
+            // Discard if identifier in MethodInvocation: analyzing those in visitMethodInvocation
+            if (parent.getValue() instanceof J.MethodInvocation) {
+                return identifier;
+            }
+
+            // Discard if identifier in NewClass: analyzing those in visitNewClass
+            if (parent.getValue() instanceof J.NewClass) {
+                return identifier;
+            }
+
+            // Discard if `this` is the select of a MethodInvocation or the containing of a MemberReference:
+            // analyzing those in visitMethodInvocation and visitMemberReference
+            if (parent.getValue() instanceof JRightPadded && isExplicitThis(identifier)) {
+                Cursor parent2 = parent.getParent();
+                if (parent2 != null && (parent2.getValue() instanceof J.MethodInvocation || parent2.getValue() instanceof J.MemberReference)) {
+                    return identifier;
+                }
+            }
+
+            // Discard if identifier not top-level of FieldAccess
+            // Since we will keep the top-level (target) of FieldAccess, no need to have a separate visitor
+            // for FieldAccess. We will just check it here if it targets our instance object class.
+            if (parent.getValue() instanceof JLeftPadded) {
+                Cursor parent2 = parent.getParent();
+                if (parent2 != null && parent2.getValue() instanceof J.FieldAccess) {
+                    return identifier;
+                }
+            }
+
+        }
+
+        JavaType.Variable fieldType = identifier.getFieldType();
+        if (fieldType != null) {
+            // Check if access to instance (also this or super) of non-static field.
+            // Since we are not in a nested FieldAccess, it can only be to our own class.
+            // Thus, no need to check FQN of class.
+            if (fieldType.getOwner() instanceof JavaType.Class) {
+                if (!fieldType.hasFlags(Flag.Static) && !this.staticFields.contains(fieldType) && !isOwnType((JavaType.Class) fieldType.getOwner())) {
+                    instanceAccess.set();
+                }
+            }
+
+            // Owner can also be a method (it is a parameter or a local variable).
+            // It can never be instance access, but when looking for the enclosing instance only, the locals of
+            // enclosing methods are captured in hidden fields just like the enclosing instance.
+            else if (fieldType.getOwner() instanceof JavaType.Method && this.ownType != null) {
+                if (!isOwnType(((JavaType.Method) fieldType.getOwner()).getDeclaringType())) {
+                    instanceAccess.set();
+                }
+            }
+        }
+
+        // An unknown name may be a field inherited from the unknown superclass.
+        // Capitalized names are taken as the names of unknown types, as in `Unknown.CONSTANT`.
+        else if (this.unresolvedSuperclass && identifier.getType() instanceof JavaType.Unknown &&
+                Character.isLowerCase(identifier.getSimpleName().charAt(0))) {
+            instanceAccess.set();
+        }
+
+        return identifier;
+    }
+
+
+    @Override
+    protected J.MethodInvocation visitMethodInvocationLink(J.MethodInvocation methodInvocation, InstanceAccess instanceAccess) {
+        // Return quickly if we already found an instance access before
+        if (instanceAccess.get()) {
+            return methodInvocation;
+        }
+
+        // Discard if the target of the invocation is not implicit or explicit this.
+        // We do not care about method invocation on other objects
+        // Explicit `this.m()` is analyzed as `m()`: if `m` becomes static, the recipe also removes the `this.`
+        if (methodInvocation.getSelect() != null && !isExplicitThis(methodInvocation.getSelect())) {
+            return methodInvocation;
+        }
+
+        JavaType.Method methodType = methodInvocation.getMethodType();
+        if (methodType != null) {
+            // Check if it is a method call to non-static member
+            if (!methodType.hasFlags(Flag.Static) && !isOwnType(methodType.getDeclaringType())) {
+                // If it's access to a potential to become static method, we add it to the list of method invocations
+                if (isNonOverridable(methodType)) {
+                    instanceAccess.addMethodInvocation(methodType);
+                } else { // Otherwise we just set instance access
+                    instanceAccess.set();
+                }
+
+            }
+        }
+        // An unknown method, or a method with arguments of unknown types, may be any method of the instance
+        else {
+            instanceAccess.set();
+        }
+
+        return methodInvocation;
+    }
+
+    @Override
+    public J.NewClass visitNewClass(J.NewClass nc, InstanceAccess instanceAccess) {
+        // Return quickly if we already found an instance access before
+        if (instanceAccess.get()) {
+            return nc;
+        }
+
+        J.NewClass newClass = super.visitNewClass(nc, instanceAccess);
+
+        // Discard if we have an enclosing
+        // We are taking care of explicit this in visitIdentifier
+        // We do not care about instantiation on other objects
+        if (newClass.getEnclosing() != null) {
+            return newClass;
+        }
+
+        // Check if class reference to non-static nested class.
+        // No need to check owning class, since we already discarded NewClass with enclosing.
+        // We can only be referring to a nested class of our own class.
+        JavaType.Class clazz = TypeUtils.asClass(newClass.getType());
+        // An unknown class may be an inner class inherited from the unknown superclass
+        if (clazz == null && this.unresolvedSuperclass) {
+            instanceAccess.set();
+        } else if (clazz != null && clazz.getOwningClass() != null) {
+            if (!clazz.hasFlags(Flag.Static) && !isOwnType(clazz.getOwningClass())) {
+                // The inner class may become static, we keep it as we do with method invocations
+                instanceAccess.addClassInstantiation(clazz.getFullyQualifiedName());
+            }
+        }
+
+        return newClass;
+    }
+
+    @Override
+    public J.FieldAccess visitFieldAccess(J.FieldAccess fa, InstanceAccess instanceAccess) {
+        if (instanceAccess.get()) {
+            return fa;
+        }
+        J.FieldAccess fieldAccess = super.visitFieldAccess(fa, instanceAccess);
+
+        // Qualified `A.this` and `A.super` always refer to the instance of an enclosing class.
+        // Its target is just the class name, so visitIdentifier cannot find it.
+        if (fieldAccess.getSimpleName().equals("this") || fieldAccess.getSimpleName().equals("super")) {
+            if (!isOwnType(TypeUtils.asFullyQualified(fieldAccess.getTarget().getType()))) {
+                instanceAccess.set();
+            }
+        }
+
+        // Same as in visitIdentifier for `this.unknown` and `super.unknown`
+        else if (this.unresolvedSuperclass && fieldAccess.getName().getFieldType() == null && fieldAccess.getTarget() instanceof J.Identifier &&
+                (isExplicitThis(fieldAccess.getTarget()) || ((J.Identifier) fieldAccess.getTarget()).getSimpleName().equals("super"))) {
+            instanceAccess.set();
+        }
+
+        return fieldAccess;
+    }
+
+    @Override
+    public J.MemberReference visitMemberReference(J.MemberReference mr, InstanceAccess instanceAccess) {
+        if (instanceAccess.get()) {
+            return mr;
+        }
+        J.MemberReference memberRef = super.visitMemberReference(mr, instanceAccess);
+
+        if (memberRef.getContaining() instanceof J.Identifier) {
+            J.Identifier id = (J.Identifier) memberRef.getContaining();
+            // On member references, we just care about the specific case where we are accessing through `this::`
+            // Any other member reference is either with static context or to a local parameter or variable.
+            // When looking for the enclosing instance only, `this` is always our own instance.
+            if (id.getSimpleName().equals("this")) {
+                if (this.ownType == null) {
+                    JavaType.Method methodType = memberRef.getMethodType();
+                    // As with method invocations, a reference to a potential to become static method is kept to check
+                    // later on: the recipe rewrites it to `Owner::m`, which does not use `this` anymore.
+                    if (methodType != null && !methodType.hasFlags(Flag.Static) && isNameable(methodType.getDeclaringType()) &&
+                            isNonOverridable(methodType)) {
+                        instanceAccess.addMethodInvocation(methodType);
+                    } else if (methodType == null || !methodType.hasFlags(Flag.Static)) {
+                        instanceAccess.set();
+                    }
+                }
+            }
+            // For the special case of `new`, we need to check as in visitNewClass if it's a static nested class
+            else if (memberRef.getReference().getSimpleName().equals("new")) {
+                JavaType.Class clazz = TypeUtils.asClass(id.getType());
+                if (clazz == null && this.unresolvedSuperclass) {
+                    instanceAccess.set();
+                } else if (clazz != null && clazz.getOwningClass() != null) {
+                    if (!clazz.hasFlags(Flag.Static) && !isOwnType(clazz.getOwningClass())) {
+                        instanceAccess.addClassInstantiation(clazz.getFullyQualifiedName());
+                    }
+                }
+            }
+        }
+
+        return memberRef;
+    }
+}
@@ -0,0 +1,127 @@
+package io.moderne.recipes;
+
+import org.openrewrite.Cursor;
+import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.tree.Expression;
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JContainer;
+import org.openrewrite.java.tree.JLeftPadded;
+import org.openrewrite.java.tree.JRightPadded;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Long chains of binary operators, ternaries and method invocations (string concatenations, generated code,
+// builders) nest one level per link, and the recursive descent of JavaIsoVisitor uses a few stack frames per level.
+// This visitor walks such a chain down in a loop instead, building the cursors the recursive descent would have
+// built, and then visits the operands of each link and rebuilds the chain from the innermost link. Only the operands
+// themselves are visited recursively, so the stack depth no longer depends on the length of the chain.
+// The links are not passed to visit(), and the spaces and markers of the chain itself are not visited, so
+// subclasses must not rely on those for binaries, ternaries or method invocations. Logic that would go after
+// super.visitMethodInvocation() goes in visitMethodInvocationLink() instead.
+abstract class ChainVisitor<P> extends JavaIsoVisitor<P> {
+
+    // Called for every invocation of a chain, innermost first, once its select and arguments have been visited.
+    protected J.MethodInvocation visitMethodInvocationLink(J.MethodInvocation method, P p) {
+        return method;
+    }
+
+    @Override
+    public J.Binary visitBinary(J.Binary binary, P p) {
+        Cursor cursor = getCursor();
+
+        // `a + b + c` is `(a + b) + c`: the chain goes down the left operand
+        List<Cursor> chain = new ArrayList<>();
+        for (Cursor link = cursor; ; ) {
+            chain.add(link);
+            J.Binary b = link.getValue();
+            if (!(b.getLeft() instanceof J.Binary)) {
+                break;
+            }
+            link = new Cursor(link, b.getLeft());
+        }
+
+        J.Binary visited = null;
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            setCursor(chain.get(i));
+            J.Binary b = chain.get(i).getValue();
+            Expression left = visited != null ? visited : visitAndCast(b.getLeft(), p);
+            visited = b.withLeft(left).withRight(visitAndCast(b.getRight(), p));
+        }
+
+        setCursor(cursor);
+        return visited;
+    }
+
+    @Override
+    public J.Ternary visitTernary(J.Ternary ternary, P p) {
+        Cursor cursor = getCursor();
+
+        // `a ? b : c ? d : e` is `a ? b : (c ? d : e)`: the chain goes down the false part
+        List<Cursor> chain = new ArrayList<>();
+        for (Cursor link = cursor; ; ) {
+            chain.add(link);
+            J.Ternary t = link.getValue();
+            if (!(t.getFalsePart() instanceof J.Ternary)) {
+                break;
+            }
+            link = new Cursor(new Cursor(link, t.getPadding().getFalsePart()), t.getFalsePart());
+        }
+
+        // Conditions and true parts are visited in source order, and the last false part at the end
+        List<J.Ternary> visited = new ArrayList<>(chain.size());
+        for (int i = 0; i < chain.size(); i++) {
+            setCursor(chain.get(i));
+            J.Ternary t = chain.get(i).getValue();
+            t = t.withCondition(visitAndCast(t.getCondition(), p))
+                    .getPadding().withTruePart(visitLeftPadded(t.getPadding().getTruePart(), JLeftPadded.Location.TERNARY_TRUE, p));
+            if (i == chain.size() - 1) {
+                t = t.getPadding().withFalsePart(visitLeftPadded(t.getPadding().getFalsePart(), JLeftPadded.Location.TERNARY_FALSE, p));
+            }
+            visited.add(t);
+        }
+        J.Ternary t = visited.get(visited.size() - 1);
+        for (int i = visited.size() - 2; i >= 0; i--) {
+            t = visited.get(i).getPadding().withFalsePart(visited.get(i).getPadding().getFalsePart().withElement(t));
+        }
+
+        setCursor(cursor);
+        return t;
+    }
+
+    @Override
+    public J.MethodInvocation visitMethodInvocation(J.MethodInvocation method, P p) {
+        Cursor cursor = getCursor();
+
+        // `a.b().c()` is `(a.b()).c()`: the chain goes down the select
+        List<Cursor> chain = new ArrayList<>();
+        for (Cursor link = cursor; ; ) {
+            chain.add(link);
+            J.MethodInvocation m = link.getValue();
+            if (!(m.getSelect() instanceof J.MethodInvocation)) {
+                break;
+            }
+            link = new Cursor(new Cursor(link, m.getPadding().getSelect()), m.getSelect());
+        }
+
+        J.MethodInvocation visited = null;
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            setCursor(chain.get(i));
+            J.MethodInvocation m = chain.get(i).getValue();
+            if (visited != null) {
+                m = m.getPadding().withSelect(m.getPadding().getSelect().withElement(visited));
+            } else if (m.getPadding().getSelect() != null) {
+                m = m.getPadding().withSelect(visitRightPadded(m.getPadding().getSelect(), JRightPadded.Location.METHOD_SELECT, p));
+            }
+            if (m.getPadding().getTypeParameters() != null) {
+                m = m.getPadding().withTypeParameters(visitContainer(m.getPadding().getTypeParameters(), JContainer.Location.TYPE_PARAMETERS, p));
+            }
+            m = m.withName(visitAndCast(m.getName(), p))
+                    .getPadding().withArguments(visitContainer(m.getPadding().getArguments(), JContainer.Location.METHOD_INVOCATION_ARGUMENTS, p));
+            visited = visitMethodInvocationLink(m, p);
+        }
+
+        setCursor(cursor);
+        return visited;
+    }
+}
@@ -0,0 +1,131 @@
+package io.moderne.recipes;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordingFile;
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.tree.JavaType;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Execution samples of the methods, read from a JFR recording of the application (`jdk.ExecutionSample` events).
+// A method is counted once per sample it is in the stack trace of, so the callers of hot methods are hot too.
+// Methods are told apart by class, name and erased parameter types, as the class files do.
+class ExecutionProfile {
+    static final ExecutionProfile EMPTY = new ExecutionProfile(Collections.emptyMap());
+
+    private static final String EXECUTION_SAMPLE = "jdk.ExecutionSample";
+
+    private final Map<String, Long> samples;
+
+    private ExecutionProfile(Map<String, Long> samples) {
+        this.samples = samples;
+    }
+
+    static ExecutionProfile read(Path recording) throws IOException {
+        Map<String, Long> samples = new HashMap<>();
+        try (RecordingFile file = new RecordingFile(recording)) {
+            while (file.hasMoreEvents()) {
+                RecordedEvent event = file.readEvent();
+                if (!EXECUTION_SAMPLE.equals(event.getEventType().getName()) || event.getStackTrace() == null) {
+                    continue;
+                }
+                // Recursive methods are only counted once per sample
+                Set<String> methods = new HashSet<>();
+                for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+                    RecordedMethod method = frame.getMethod();
+                    if (frame.isJavaFrame() && method != null && method.getType() != null) {
+                        methods.add(key(method.getType().getName(), method.getName(), parameterTypes(method.getDescriptor())));
+                    }
+                }
+                methods.forEach(method -> samples.merge(method, 1L, Long::sum));
+            }
+        }
+        return new ExecutionProfile(samples);
+    }
+
+    long samples(@Nullable JavaType.Method method) {
+        if (method == null) {
+            return 0;
+        }
+        List<String> parameterTypes = new ArrayList<>();
+        for (JavaType parameterType : method.getParameterTypes()) {
+            parameterTypes.add(erasure(parameterType));
+        }
+        return this.samples.getOrDefault(key(method.getDeclaringType().getFullyQualifiedName(), method.getName(), parameterTypes), 0L);
+    }
+
+    private static String key(String className, String methodName, List<String> parameterTypes) {
+        return className + ' ' + methodName + '(' + String.join(",", parameterTypes) + ')';
+    }
+
+    // `(I[Ljava/lang/String;)V` has the parameters `int` and `java.lang.String[]`
+    private static List<String> parameterTypes(String descriptor) {
+        List<String> parameterTypes = new ArrayList<>();
+        int i = 1;
+        while (i < descriptor.length() && descriptor.charAt(i) != ')') {
+            int dimensions = 0;
+            while (descriptor.charAt(i) == '[') {
+                dimensions++;
+                i++;
+            }
+            String type;
+            if (descriptor.charAt(i) == 'L') {
+                int end = descriptor.indexOf(';', i);
+                type = descriptor.substring(i + 1, end).replace('/', '.');
+                i = end + 1;
+            } else {
+                type = primitive(descriptor.charAt(i));
+                i++;
+            }
+            parameterTypes.add(type + "[]".repeat(dimensions));
+        }
+        return parameterTypes;
+    }
+
+    private static String primitive(char descriptor) {
+        switch (descriptor) {
+            case 'Z':
+                return "boolean";
+            case 'B':
+                return "byte";
+            case 'C':
+                return "char";
+            case 'S':
+                return "short";
+            case 'I':
+                return "int";
+            case 'J':
+                return "long";
+            case 'F':
+                return "float";
+            case 'D':
+                return "double";
+            default:
+                return "void";
+        }
+    }
+
+    private static String erasure(JavaType type) {
+        if (type instanceof JavaType.Primitive) {
+            return ((JavaType.Primitive) type).getKeyword();
+        } else if (type instanceof JavaType.Array) {
+            return erasure(((JavaType.Array) type).getElemType()) + "[]";
+        } else if (type instanceof JavaType.GenericTypeVariable) {
+            List<JavaType> bounds = ((JavaType.GenericTypeVariable) type).getBounds();
+            return bounds.isEmpty() ? "java.lang.Object" : erasure(bounds.get(0));
+        } else if (type instanceof JavaType.FullyQualified) {
+            return ((JavaType.FullyQualified) type).getFullyQualifiedName();
+        }
+        return "";
+    }
+}
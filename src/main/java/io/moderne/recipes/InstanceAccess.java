@@ -0,0 +1,51 @@
+package io.moderne.recipes;
+
+import org.openrewrite.java.tree.JavaType;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+// Helper class to encapsulate the returned data of the AccessInstanceDataVisitor.
+// We have a flag that starts at false, and can only be set up to true.
+// We also have a list of method invocations to non-static non-overridable methods, to check later on
+// Due to the short-circuit that we have on the visitor, if the flag is set to true, the list of method invocations
+// may be incomplete.
+// Instantiations of inner classes are kept the same way, since those classes may become static too.
+public class InstanceAccess {
+    private boolean instanceAccess = false;
+    private Set<JavaType.Method> methodInvocations = new HashSet<>();
+    private Set<String> classInstantiations = new HashSet<>();
+
+    void set() {
+        this.instanceAccess = true;
+    }
+
+    // Whether the body uses the instance, other than through the methods and inner classes below.
+    public boolean get() {
+        return this.instanceAccess;
+    }
+
+    void addMethodInvocation(JavaType.Method method) {
+        this.methodInvocations.add(method);
+    }
+
+    // Non-static methods of the instance invoked by the body that cannot be overridden: private or final methods, and
+    // methods of final or private classes. It does not use the instance if they all become static.
+    public Set<JavaType.Method> getMethodInvocations() {
+        return Collections.unmodifiableSet(this.methodInvocations);
+    }
+
+    void addClassInstantiation(String clazz) {
+        this.classInstantiations.add(clazz);
+    }
+
+    // Fully qualified names of the inner classes instantiated by the body. Same as above, if they all become static.
+    public Set<String> getClassInstantiations() {
+        return Collections.unmodifiableSet(this.classInstantiations);
+    }
+
+    public boolean dependsOnlyOn(Set<JavaType.Method> validMethods, Set<String> validClasses) {
+        return validMethods.containsAll(this.methodInvocations) && validClasses.containsAll(this.classInstantiations);
+    }
+}
@@ -0,0 +1,101 @@
+package io.moderne.recipes;
+
+import lombok.Value;
+import org.openrewrite.ExecutionContext;
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JavaType;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Analyzer of the instance access of method bodies, shared by all the recipes of a run.
+// Results are kept in the execution context, so the next cycles, and the other recipes of the run asking for the same
+// method, do not traverse its body again if it has not changed.
+// Trees are immutable: an unchanged body is the very same object, while a changed one is a new object with the same id.
+// Entries are keyed by that id, and only hold the body weakly, so the cache does not keep the trees of the previous
+// cycles alive. The entries of the collected bodies are dropped on the next lookup.
+// A marker on the method declaration would work too, but adding it would change the source file, and every cycle
+// would then report a change.
+public class InstanceAccessAnalyzer {
+    private static final String KEY = InstanceAccessAnalyzer.class.getName();
+
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+    private final ReferenceQueue<J.Block> collectedBodies = new ReferenceQueue<>();
+
+    @Value
+    private static class Entry {
+        BodyReference body;
+        // The static fields are the same for all the methods of a file, their hash is enough to tell them apart
+        int staticFieldsHash;
+        boolean unresolvedSuperclass;
+        InstanceAccess instanceAccess;
+    }
+
+    private static class BodyReference extends WeakReference<J.Block> {
+        private final UUID id;
+
+        BodyReference(J.Block body, ReferenceQueue<J.Block> queue) {
+            super(body, queue);
+            this.id = body.getId();
+        }
+    }
+
+    private InstanceAccessAnalyzer() {
+    }
+
+    // Analyzes the body of a method as it is now, with all the fields as they are declared.
+    // Abstract and native methods have no body, and do not use the instance.
+    public static InstanceAccess analyze(J.MethodDeclaration method, ExecutionContext executionContext) {
+        boolean unresolvedSuperclass = method.getMethodType() == null;
+        for (JavaType.FullyQualified t = method.getMethodType() != null ? method.getMethodType().getDeclaringType() : null;
+             t != null && !unresolvedSuperclass; t = t.getOwningClass()) {
+            unresolvedSuperclass = AccessInstanceDataVisitor.hasUnresolvedSuperclass(t);
+        }
+        return get(executionContext).find(method.getBody(), Collections.emptySet(), TimeBudget.UNLIMITED, unresolvedSuperclass);
+    }
+
+    static InstanceAccessAnalyzer get(ExecutionContext executionContext) {
+        InstanceAccessAnalyzer analyzer = executionContext.getMessage(KEY);
+        if (analyzer == null) {
+            analyzer = new InstanceAccessAnalyzer();
+            executionContext.putMessage(KEY, analyzer);
+        }
+        return analyzer;
+    }
+
+    // Instance fields in `staticFields` are considered static already.
+    // With an unresolved superclass, unknown names in the body are considered inherited instance fields.
+    InstanceAccess find(@Nullable J.Block body, Set<JavaType.Variable> staticFields, TimeBudget timeBudget, boolean unresolvedSuperclass) {
+        if (body == null) {
+            return AccessInstanceDataVisitor.find(null, staticFields, timeBudget, unresolvedSuperclass);
+        }
+
+        for (Reference<? extends J.Block> collected = this.collectedBodies.poll(); collected != null; collected = this.collectedBodies.poll()) {
+            // A newer entry for the same id holds another reference, and stays
+            BodyReference reference = (BodyReference) collected;
+            this.entries.computeIfPresent(reference.id, (id, e) -> e.getBody() == reference ? null : e);
+        }
+
+        int staticFieldsHash = staticFields.hashCode();
+        Entry entry = this.entries.get(body.getId());
+        if (entry != null && entry.getBody().get() == body && entry.getStaticFieldsHash() == staticFieldsHash &&
+                entry.isUnresolvedSuperclass() == unresolvedSuperclass) {
+            return entry.getInstanceAccess();
+        }
+
+        InstanceAccess instanceAccess = AccessInstanceDataVisitor.find(body, staticFields, timeBudget, unresolvedSuperclass);
+        // An analysis cut short by the time budget is not the real result of the body
+        if (!timeBudget.isExhausted()) {
+            this.entries.put(body.getId(), new Entry(new BodyReference(body, this.collectedBodies), staticFieldsHash, unresolvedSuperclass, instanceAccess));
+        }
+        return instanceAccess;
+    }
+}
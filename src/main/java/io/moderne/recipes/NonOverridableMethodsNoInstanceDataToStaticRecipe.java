@@ -1,25 +1,217 @@
 package io.moderne.recipes;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import io.moderne.recipes.sink.DecisionSink;
+import io.moderne.recipes.sink.MethodDecision;
+import io.moderne.recipes.table.AnalysisTimeouts;
+import io.moderne.recipes.table.DeadFields;
+import io.moderne.recipes.table.InnerClassesMadeStatic;
+import io.moderne.recipes.table.PerformanceImpact;
+import io.moderne.recipes.table.SkippedAnalysis;
+import io.moderne.recipes.table.UtilityClasses;
+import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.Value;
+import lombok.With;
 import org.openrewrite.Cursor;
 import org.openrewrite.ExecutionContext;
+import org.openrewrite.Option;
 import org.openrewrite.Recipe;
+import org.openrewrite.SourceFile;
 import org.openrewrite.Tree;
+import org.openrewrite.Validated;
 import org.openrewrite.internal.ListUtils;
+import org.openrewrite.internal.lang.Nullable;
+import org.openrewrite.java.AnnotationMatcher;
 import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.JavaVisitor;
 import org.openrewrite.java.MethodMatcher;
+import org.openrewrite.java.marker.JavaProject;
 import org.openrewrite.java.tree.*;
+import org.openrewrite.marker.GitProvenance;
 import org.openrewrite.marker.Markers;
 
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+@Value
+@EqualsAndHashCode(callSuper = true)
+@With
+@AllArgsConstructor(onConstructor_ = @JsonCreator)
 public class NonOverridableMethodsNoInstanceDataToStaticRecipe extends Recipe {
 
+    @Option(displayName = "Excluded source paths",
+            description = "Glob patterns of source paths that will be neither analyzed nor modified, such as generated sources.",
+            example = "target/generated-sources/**",
+            required = false)
+    @Nullable
+    List<String> excludedSourcePaths;
+
+    @Option(displayName = "Included source paths",
+            description = "Glob patterns, or plain paths, of the only source paths that will be analyzed and modified, " +
+                    "such as the files changed in a pull request (`git diff --name-only base..head`). When not set, all source paths are included.",
+            example = "src/main/java/com/example/Changed.java",
+            required = false)
+    @Nullable
+    List<String> includedSourcePaths;
+
+    @Option(displayName = "Excluded class annotations",
+            description = "Annotation patterns. Classes carrying any of them, and their nested classes, will be neither analyzed nor modified.",
+            example = "@javax.annotation.processing.Generated",
+            required = false)
+    @Nullable
+    List<String> excludedAnnotations;
+
+    @Option(displayName = "Maximum method body nodes",
+            description = "Methods whose body has more LST nodes than this limit will not be analyzed.",
+            example = "5000",
+            required = false)
+    @Nullable
+    Integer maxMethodBodyNodes;
+
+    @Option(displayName = "Maximum class methods",
+            description = "Classes declaring more methods than this limit will not be analyzed.",
+            example = "500",
+            required = false)
+    @Nullable
+    Integer maxClassMethods;
+
+    @Option(displayName = "Time budget per file",
+            description = "Maximum analysis time in milliseconds for a single source file. Files exceeding it are left unchanged.",
+            example = "10000",
+            required = false)
+    @Nullable
+    Integer timeBudgetPerFile;
+
+    @Option(displayName = "Make methods of final classes static",
+            description = "Also make static the public, protected and package-private methods of final classes, records and enums " +
+                    "that don't access instance data. Those methods are part of the class API: callers compiled against it, " +
+                    "`A::m` references in other files and frameworks reading bean properties break. " +
+                    "The methods of private classes are always taken, as no other file can reach them.",
+            required = false)
+    @Nullable
+    Boolean makeFinalClassMethodsStatic;
+
+    @Option(displayName = "Make inner classes static",
+            description = "Also make static the private inner classes that never use the enclosing instance, " +
+                    "so their instances no longer hold a reference to it.",
+            required = false)
+    @Nullable
+    Boolean makeInnerClassesStatic;
+
+    @Option(displayName = "Hoist anonymous classes",
+            description = "Also hoist into `private static final` constants the anonymous classes implementing interfaces created in methods " +
+                    "that capture neither the enclosing instance nor local variables, and have no state of their own.",
+            required = false)
+    @Nullable
+    Boolean hoistAnonymousClasses;
+
+    @Option(displayName = "Convert anonymous classes to lambdas",
+            description = "Also replace with lambdas, or with static method references, the anonymous classes implementing a functional interface " +
+                    "that capture neither the enclosing instance nor local variables. The JVM creates such a lambda once and reuses it.",
+            required = false)
+    @Nullable
+    Boolean convertAnonymousClassesToLambdas;
+
+    @Option(displayName = "Make constant fields static",
+            description = "Also make static the private final instance fields initialized with a literal constant expression, " +
+                    "so objects do not carry a copy of them and the methods reading them can become static.",
+            required = false)
+    @Nullable
+    Boolean makeConstantFieldsStatic;
+
+    @Option(displayName = "Report dead fields",
+            description = "Also report the private instance fields that are never read, without removing them.",
+            required = false)
+    @Nullable
+    Boolean reportDeadFields;
+
+    @Option(displayName = "Remove dead fields",
+            description = "Also remove the private instance fields that are never referenced, when their initializer has no side effects. " +
+                    "Dead fields are reported too, whether they are removed or not.",
+            required = false)
+    @Nullable
+    Boolean removeDeadFields;
+
+    @Option(displayName = "Remove utility class instantiations",
+            description = "Also rewrite `new Helper().m()` to `Helper.m()` when every method of `Helper` is, or becomes, static, " +
+                    "and creating it has no side effects. Classes no longer instantiated are reported, as they could get a private constructor.",
+            required = false)
+    @Nullable
+    Boolean removeUtilityClassInstantiations;
+
+    @Option(displayName = "Shard count",
+            description = "Number of shards the source files are partitioned into, by a stable hash of their path. " +
+                    "Each shard can be run in a separate process, and the results of all the shards merged afterwards.",
+            example = "4",
+            required = false)
+    @Nullable
+    Integer shardCount;
+
+    @Option(displayName = "Shard index",
+            description = "Index of the shard to analyze and modify, from 0 to the shard count minus one. Other source files are left untouched.",
+            example = "0",
+            required = false)
+    @Nullable
+    Integer shardIndex;
+
+    @Option(displayName = "Execution profile",
+            description = "Path of a JFR recording of the application with execution samples (`jdk.ExecutionSample` events). " +
+                    "The samples of each method are reported with the changes, and can be used to limit them to the methods hot in production.",
+            example = "profiles/production.jfr",
+            required = false)
+    @Nullable
+    String executionProfile;
+
+    @Option(displayName = "Minimum execution samples",
+            description = "Only methods with at least this number of execution samples in the execution profile, " +
+                    "and the methods they need to become static too, are made static.",
+            example = "10",
+            required = false)
+    @Nullable
+    Integer minExecutionSamples;
+
+    transient SkippedAnalysis skippedAnalysis = new SkippedAnalysis(this);
+
+    transient AnalysisTimeouts analysisTimeouts = new AnalysisTimeouts(this);
+
+    transient InnerClassesMadeStatic innerClassesMadeStatic = new InnerClassesMadeStatic(this);
+
+    transient DeadFields deadFields = new DeadFields(this);
+
+    transient PerformanceImpact performanceImpact = new PerformanceImpact(this);
+
+    transient UtilityClasses utilityClasses = new UtilityClasses(this);
+
+    // Recordings are large and slow to read, they are read once per recipe, when it is validated or else before its first run.
+    transient AtomicReference<ExecutionProfile> loadedExecutionProfile = new AtomicReference<>();
+
+    public NonOverridableMethodsNoInstanceDataToStaticRecipe() {
+        this(null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null);
+    }
+
     @Override
     public String getDisplayName() {
         return "\"private\" and \"final\" methods that don't access instance data should be \"static\"";
@@ -27,17 +219,69 @@ public class NonOverridableMethodsNoInstanceDataToStaticRecipe extends Recipe {
 
     @Override
     public String getDescription() {
-        return "Non-overridable methods (private or final) that don’t access instance data can be static to prevent any misunderstanding about the contract of the method.";
+        return "Non-overridable methods (private or final, or in a class that cannot be extended) that don’t access instance data can be static to prevent any misunderstanding about the contract of the method.";
+    }
+
+    @Override
+    public Validated validate() {
+        return super.validate()
+                .and(Validated.test("shardIndex", "Shard count and shard index must be set together", shardIndex,
+                        index -> (shardCount == null) == (index == null)))
+                .and(Validated.test("shardIndex", "Shard index must be between 0 and the shard count minus one", shardIndex,
+                        index -> index == null || shardCount == null || (index >= 0 && index < shardCount)))
+                .and(Validated.test("executionProfile", "Execution profile must be a readable JFR recording", executionProfile,
+                        profile -> profile == null || loadExecutionProfile() != null))
+                .and(Validated.test("minExecutionSamples", "Minimum execution samples requires an execution profile", minExecutionSamples,
+                        min -> min == null || executionProfile != null));
     }
 
     @Override
     public JavaIsoVisitor<ExecutionContext> getVisitor() {
-        return new JavaIsoVisitor<ExecutionContext>() {
+        // Filters are built once per visitor, so matching a class or a source path is cheap.
+        List<PathMatcher> pathMatchers = pathMatchers(excludedSourcePaths);
+        List<PathMatcher> includedPathMatchers = pathMatchers(includedSourcePaths);
+        List<AnnotationMatcher> annotationMatchers = excludedAnnotations == null ? Collections.emptyList() : excludedAnnotations
+                .stream()
+                .map(pattern -> new AnnotationMatcher(pattern.startsWith("@") ? pattern : "@" + pattern))
+                .collect(Collectors.toList());
+        // The companion transforms leave alone the classes and methods the analysis skips
+        Predicate<Cursor> excluded = cursor -> isExcluded(cursor, annotationMatchers);
+        // An unreadable recording fails the validation, the recipe then runs as if no method had been sampled
+        ExecutionProfile loadedProfile = loadExecutionProfile();
+        ExecutionProfile profile = loadedProfile == null ? ExecutionProfile.EMPTY : loadedProfile;
+
+        return new ChainVisitor<ExecutionContext>() {
             private static final List<MethodMatcher> serializableMethods = List.of(new MethodMatcher("* writeObject(java.io.ObjectOutputStream)"), new MethodMatcher("* readObject(java.io.ObjectInputStream)"), new MethodMatcher("* readObjectNoData()"));
 
 
             private Set<JavaType.Method> methodsToBeStatic = new HashSet<>();
 
+            // Fully qualified names of the inner classes that will become static nested classes.
+            private Set<String> classesToBeStatic = new HashSet<>();
+
+            // Private final instance fields with a constant initializer, that will become static.
+            private Set<JavaType.Variable> fieldsToBeStatic = new HashSet<>();
+
+            // Inner classes instantiated somewhere with an explicit enclosing instance (`a.new B()`).
+            // Those instantiations would not compile anymore if the class became static.
+            private Set<String> explicitlyEnclosedClasses = new HashSet<>();
+
+            // Classes extended somewhere in the compilation unit. Private classes can only be extended in the same file.
+            private Set<String> subclassedClasses = new HashSet<>();
+
+            // Instance methods referenced through their class (`A::m`), which then take the instance as first argument,
+            // or through another instance (`a::m`, `super::m`). Those references would not compile anymore if the
+            // method became static.
+            private Set<JavaType.Method> referencedMethods = new HashSet<>();
+
+            private TimeBudget timeBudget = TimeBudget.UNLIMITED;
+
+            // Changes made in the current compilation unit, by class, in the order they were found.
+            private Map<String, Impact> impacts = new LinkedHashMap<>();
+
+            // Decisions on the methods of the current compilation unit, only kept when there is a sink to send them to.
+            private @Nullable List<MethodDecision> decisions;
+
             // Helper class to hold together the method type and it's instance access data in a stream.
             static class MethodWithInstanceAccess {
                 public MethodWithInstanceAccess(JavaType.Method method, InstanceAccess instanceAccess) {
@@ -49,47 +293,427 @@ public class NonOverridableMethodsNoInstanceDataToStaticRecipe extends Recipe {
                 public final InstanceAccess instanceAccess;
             }
 
+            // Same as above, but for inner classes and their outer instance access data.
+            static class ClassWithInstanceAccess {
+                public ClassWithInstanceAccess(String clazz, InstanceAccess instanceAccess) {
+                    this.clazz = clazz;
+                    this.instanceAccess = instanceAccess;
+                }
+
+                public final String clazz;
+                public final InstanceAccess instanceAccess;
+            }
+
+            // Counters of the changes made in a class that have an effect at runtime.
+            static class Impact {
+                int staticCallSites;
+                int nonCapturingMethodReferences;
+                int classesWithoutOuterReference;
+                int receiverEvaluationsRemoved;
+                int allocationsRemoved;
+                long executionSamples;
+            }
+
+            @Override
+            public J.CompilationUnit visitCompilationUnit(J.CompilationUnit cu, ExecutionContext executionContext) {
+                // Excluded files are not even traversed, so they can never be modified.
+                if (pathMatchers.stream().anyMatch(matcher -> matcher.matches(cu.getSourcePath()))) {
+                    skippedAnalysis.insertRow(executionContext, new SkippedAnalysis.Row(cu.getSourcePath().toString(), cu.getSourcePath().toString(), SkippedAnalysis.EXCLUDED_SOURCE_PATH));
+                    return cu;
+                }
+
+                // Files out of the scope of the run (unchanged files of a pull request...) are not reported as skipped:
+                // they are usually most of the repository.
+                if (!includedPathMatchers.isEmpty() && includedPathMatchers.stream().noneMatch(matcher -> matcher.matches(cu.getSourcePath()))) {
+                    return cu;
+                }
+
+                // Files of other shards are left to the processes running them. Every analysis and change of the
+                // recipe is local to a compilation unit, so the shards never need each other's results.
+                if (shardCount != null && shardIndex != null && shard(cu.getSourcePath(), shardCount) != shardIndex) {
+                    return cu;
+                }
+
+                this.timeBudget = timeBudgetPerFile == null ? TimeBudget.UNLIMITED : new TimeBudget(timeBudgetPerFile);
+                this.impacts = new LinkedHashMap<>();
+                DecisionSink sink = DecisionSink.get(executionContext);
+                this.decisions = sink != null && reportedSourcePaths(executionContext).add(cu.getSourcePath()) ? new ArrayList<>() : null;
+                if (Boolean.TRUE.equals(makeInnerClassesStatic)) {
+                    this.explicitlyEnclosedClasses = collectExplicitlyEnclosedClasses(cu);
+                }
+                this.subclassedClasses = collectSubclassedClasses(cu);
+                this.referencedMethods = collectMethodReferences(cu);
+                J.CompilationUnit compilationUnit = super.visitCompilationUnit(cu, executionContext);
+
+                // Lambdas first: the anonymous classes they replace do not need to be hoisted anymore
+                if (Boolean.TRUE.equals(convertAnonymousClassesToLambdas) && !this.timeBudget.isExhausted()) {
+                    compilationUnit = (J.CompilationUnit) new AnonymousClassToLambdaVisitor(this.methodsToBeStatic, this.classesToBeStatic, this.fieldsToBeStatic, this.timeBudget, excluded)
+                            .visitNonNull(compilationUnit, executionContext);
+                }
+
+                if (Boolean.TRUE.equals(hoistAnonymousClasses) && !this.timeBudget.isExhausted()) {
+                    compilationUnit = (J.CompilationUnit) new AnonymousClassHoistingVisitor(this.methodsToBeStatic, this.classesToBeStatic, this.fieldsToBeStatic, this.timeBudget, excluded)
+                            .visitNonNull(compilationUnit, executionContext);
+                }
+
+                // The analysis of an exhausted file is incomplete, so we drop any change and keep the file as it was.
+                if (this.timeBudget.isExhausted()) {
+                    analysisTimeouts.insertRow(executionContext, new AnalysisTimeouts.Row(cu.getSourcePath().toString(), this.timeBudget.elapsedMillis()));
+                    return cu;
+                }
+
+                // Invocations through a new instance may come before the class in the file, so they are only
+                // rewritten once every class has been analyzed.
+                if (Boolean.TRUE.equals(removeUtilityClassInstantiations)) {
+                    compilationUnit = handleUtilityClasses(compilationUnit, executionContext);
+                }
+
+                String module = cu.getMarkers().findFirst(JavaProject.class).map(JavaProject::getProjectName).orElse("");
+                this.impacts.forEach((className, impact) -> performanceImpact.insertRow(executionContext, new PerformanceImpact.Row(module, cu.getSourcePath().toString(), className,
+                        impact.staticCallSites, impact.nonCapturingMethodReferences, impact.classesWithoutOuterReference, impact.receiverEvaluationsRemoved,
+                        impact.allocationsRemoved, impact.executionSamples)));
+                if (sink != null && this.decisions != null) {
+                    this.decisions.forEach(sink::accept);
+                }
+
+                // Private fields can only be referenced from the same compilation unit, so we look for dead fields
+                // once all the other changes are done.
+                if (Boolean.TRUE.equals(reportDeadFields) || Boolean.TRUE.equals(removeDeadFields)) {
+                    compilationUnit = handleDeadFields(compilationUnit, executionContext);
+                }
+                return compilationUnit;
+            }
+
+            private J.CompilationUnit handleDeadFields(J.CompilationUnit cu, ExecutionContext executionContext) {
+                FieldUsage fieldUsage = FieldUsageVisitor.find(cu);
+                Set<JavaType.Variable> removable = new HashSet<>();
+                for (J.VariableDeclarations.NamedVariable field : fieldUsage.declarations) {
+                    JavaType.Variable variable = field.getVariableType();
+                    if (fieldUsage.read.contains(variable)) {
+                        continue;
+                    }
+                    boolean unused = !fieldUsage.written.contains(variable);
+                    // Write-only fields are only reported: removing them would mean removing the assignments too.
+                    boolean removed = unused && Boolean.TRUE.equals(removeDeadFields) &&
+                            (field.getInitializer() == null || field.getInitializer() instanceof J.Literal || isConstantExpression(field.getInitializer()));
+                    if (removed) {
+                        removable.add(variable);
+                    }
+                    deadFields.insertRow(executionContext, new DeadFields.Row(cu.getSourcePath().toString(), ((JavaType.FullyQualified) variable.getOwner()).getFullyQualifiedName(),
+                            field.getSimpleName(), unused ? DeadFields.UNUSED : DeadFields.WRITE_ONLY, removed));
+                }
+
+                if (removable.isEmpty()) {
+                    return cu;
+                }
+                return (J.CompilationUnit) new ChainVisitor<ExecutionContext>() {
+                    @Override
+                    public J.Block visitBlock(J.Block block, ExecutionContext executionContext) {
+                        J.Block b = super.visitBlock(block, executionContext);
+                        return b.withStatements(ListUtils.map(b.getStatements(), statement -> {
+                            if (!(statement instanceof J.VariableDeclarations)) {
+                                return statement;
+                            }
+                            J.VariableDeclarations variableDeclarations = (J.VariableDeclarations) statement;
+                            List<J.VariableDeclarations.NamedVariable> variables = ListUtils.map(variableDeclarations.getVariables(),
+                                    v -> removable.contains(v.getVariableType()) ? null : v);
+                            return variables.isEmpty() ? null : variableDeclarations.withVariables(variables);
+                        }));
+                    }
+                }.visitNonNull(cu, executionContext);
+            }
+
+            // Once all the methods of a class are static, `new Helper().compute(x)` allocates an object only to throw
+            // it away. When creating the object has no side effects, the invocation becomes `Helper.compute(x)`.
+            // Utility classes no longer instantiated in the file are reported, as they could get a private constructor.
+            private J.CompilationUnit handleUtilityClasses(J.CompilationUnit cu, ExecutionContext executionContext) {
+                Set<String> candidates = collectUtilityClasses(cu);
+                if (candidates.isEmpty()) {
+                    return cu;
+                }
+
+                Map<String, Integer> instantiationsRemoved = new HashMap<>();
+                J.CompilationUnit compilationUnit = (J.CompilationUnit) new ChainVisitor<ExecutionContext>() {
+                    @Override
+                    public J.ClassDeclaration visitClassDeclaration(J.ClassDeclaration classDecl, ExecutionContext executionContext) {
+                        return hasExcludedAnnotation(classDecl) ? classDecl : super.visitClassDeclaration(classDecl, executionContext);
+                    }
+
+                    @Override
+                    protected J.MethodInvocation visitMethodInvocationLink(J.MethodInvocation methodInvocation, ExecutionContext executionContext) {
+                        if (!(methodInvocation.getSelect() instanceof J.NewClass)) {
+                            return methodInvocation;
+                        }
+                        J.NewClass newClass = (J.NewClass) methodInvocation.getSelect();
+                        JavaType.FullyQualified type = TypeUtils.asFullyQualified(newClass.getType());
+                        JavaType.Method methodType = methodInvocation.getMethodType();
+                        if (newClass.getBody() != null || newClass.getEnclosing() != null || newClass.getClazz() == null || type == null ||
+                                !candidates.contains(type.getFullyQualifiedName()) || newClass.getArguments().stream().anyMatch(arg -> !(arg instanceof J.Empty)) ||
+                                methodType == null || !methodType.hasFlags(Flag.Static) && !methodsToBeStatic.contains(methodType)) {
+                            return methodInvocation;
+                        }
+
+                        // Static methods are invoked through the raw class name
+                        Expression clazz = (Expression) (newClass.getClazz() instanceof J.ParameterizedType ?
+                                ((J.ParameterizedType) newClass.getClazz()).getClazz() : newClass.getClazz());
+                        instantiationsRemoved.merge(type.getFullyQualifiedName(), 1, Integer::sum);
+                        J.ClassDeclaration enclosing = getCursor().firstEnclosing(J.ClassDeclaration.class);
+                        impact(enclosing == null ? "" : className(enclosing)).allocationsRemoved++;
+                        return methodInvocation.withSelect(clazz.withPrefix(newClass.getPrefix()));
+                    }
+                }.visitNonNull(cu, executionContext);
+
+                Set<String> instantiated = new ChainVisitor<Set<String>>() {
+                    @Override
+                    public J.NewClass visitNewClass(J.NewClass newClass, Set<String> classes) {
+                        JavaType.FullyQualified type = newClass.getClazz() != null ? TypeUtils.asFullyQualified(newClass.getClazz().getType()) : null;
+                        if (type != null) {
+                            classes.add(type.getFullyQualifiedName());
+                        }
+                        return super.visitNewClass(newClass, classes);
+                    }
+
+                    @Override
+                    public J.MemberReference visitMemberReference(J.MemberReference memberRef, Set<String> classes) {
+                        JavaType.FullyQualified type = TypeUtils.asFullyQualified(memberRef.getContaining().getType());
+                        if (type != null && memberRef.getReference().getSimpleName().equals("new")) {
+                            classes.add(type.getFullyQualifiedName());
+                        }
+                        return super.visitMemberReference(memberRef, classes);
+                    }
+                }.reduce(compilationUnit, new HashSet<>());
+                for (String utilityClass : candidates) {
+                    if (!instantiated.contains(utilityClass) && !this.subclassedClasses.contains(utilityClass)) {
+                        utilityClasses.insertRow(executionContext, new UtilityClasses.Row(cu.getSourcePath().toString(), utilityClass,
+                                instantiationsRemoved.getOrDefault(utilityClass, 0)));
+                    }
+                }
+
+                return compilationUnit;
+            }
+
+            // Classes with static methods only, and whose instances are created without side effects: no instance
+            // fields or initializers, empty constructors, no superclass but `Object`. Classes that already have a
+            // private constructor are left out, there is nothing to report about them.
+            private Set<String> collectUtilityClasses(J.CompilationUnit cu) {
+                return new ChainVisitor<Set<String>>() {
+                    @Override
+                    public J.ClassDeclaration visitClassDeclaration(J.ClassDeclaration classDecl, Set<String> classes) {
+                        boolean topLevel = getCursor().getParentTreeCursor().getValue() instanceof J.CompilationUnit;
+                        if (classDecl.getType() != null && classDecl.getKind() == J.ClassDeclaration.Kind.Type.Class && classDecl.getExtends() == null &&
+                                !classDecl.hasModifier(J.Modifier.Type.Abstract) && (topLevel || classDecl.hasModifier(J.Modifier.Type.Static)) &&
+                                !hasExcludedAnnotation(classDecl) && isUtilityClassBody(classDecl.getBody())) {
+                            classes.add(classDecl.getType().getFullyQualifiedName());
+                        }
+                        return super.visitClassDeclaration(classDecl, classes);
+                    }
+                }.reduce(cu, new HashSet<>());
+            }
+
+            private static boolean isUtilityClassBody(J.Block body) {
+                boolean hasMethods = false;
+                for (Statement statement : body.getStatements()) {
+                    if (statement instanceof J.MethodDeclaration) {
+                        J.MethodDeclaration method = (J.MethodDeclaration) statement;
+                        if (method.isConstructor()) {
+                            if (method.hasModifier(J.Modifier.Type.Private) || method.getBody() == null || !method.getBody().getStatements().isEmpty()) {
+                                return false;
+                            }
+                        } else if (!method.hasModifier(J.Modifier.Type.Static)) {
+                            return false;
+                        } else {
+                            hasMethods = true;
+                        }
+                    } else if (statement instanceof J.VariableDeclarations && !((J.VariableDeclarations) statement).hasModifier(J.Modifier.Type.Static) ||
+                            statement instanceof J.Block && !((J.Block) statement).isStatic()) {
+                        return false;
+                    }
+                }
+                return hasMethods;
+            }
+
             @Override
             public J.ClassDeclaration visitClassDeclaration(J.ClassDeclaration classDecl, ExecutionContext executionContext) {
-                List<J.MethodDeclaration> methods = collectNonOverridableMethods(classDecl.getBody());
+                // Same for excluded classes: neither the class nor any of its nested classes are traversed.
+                if (hasExcludedAnnotation(classDecl)) {
+                    skip(className(classDecl), SkippedAnalysis.EXCLUDED_ANNOTATION, executionContext);
+                    return classDecl;
+                }
 
-                List<MethodWithInstanceAccess> noInstanceAccess = enrichAndFilterWithNoInstanceAccess(methods);
+                if (!exceedsMaxClassMethods(classDecl.getBody(), className(classDecl), executionContext)) {
+                    // Constant fields go first, so the methods reading them are analyzed as reading static fields
+                    if (Boolean.TRUE.equals(makeConstantFieldsStatic)) {
+                        this.fieldsToBeStatic.addAll(collectConstantFields(classDecl));
+                    }
+                    // Other files can call or reference the non-private methods of a final class, they are only taken on request
+                    boolean allMethods = isEffectivelyFinal(classDecl) && (Boolean.TRUE.equals(makeFinalClassMethodsStatic) || isPrivatelyNested(getCursor()));
+                    analyze(classDecl.getBody(), canDeclareStaticMembers(classDecl, getCursor()), allMethods, executionContext);
+                }
 
-                List<JavaType.Method> toModify = filterNonStaticMethodInvocations(noInstanceAccess, this.methodsToBeStatic);
+                J.ClassDeclaration classDeclaration = super.visitClassDeclaration(classDecl, executionContext);
 
-                this.methodsToBeStatic.addAll(toModify);
+                // As for methods, the analysis has already been done when visiting the enclosing class.
+                // We only add the modifier right after the existing ones, without formatting the whole class body.
+                if (classDecl.getType() != null && this.classesToBeStatic.contains(classDecl.getType().getFullyQualifiedName())) {
+                    classDeclaration = classDeclaration.withModifiers(ListUtils.concat(classDeclaration.getModifiers(), new J.Modifier(Tree.randomId(), Space.format(" "), Markers.EMPTY, J.Modifier.Type.Static, Collections.emptyList())));
+                    J.CompilationUnit cu = getCursor().firstEnclosingOrThrow(J.CompilationUnit.class);
+                    innerClassesMadeStatic.insertRow(executionContext, new InnerClassesMadeStatic.Row(cu.getSourcePath().toString(), className(classDecl), InnerClassesMadeStatic.OUTER_REFERENCE_BYTES));
+                    impact(className(classDecl)).classesWithoutOuterReference++;
+                }
 
-                return super.visitClassDeclaration(classDecl, executionContext);
+                return classDeclaration;
             }
 
             @Override
             public J.NewClass visitNewClass(J.NewClass newClass, ExecutionContext executionContext) {
                 if (newClass.getBody() != null) {
-                    List<J.MethodDeclaration> methods = collectNonOverridableMethods(newClass.getBody());
+                    String className = newClass.getType() instanceof JavaType.FullyQualified ? ((JavaType.FullyQualified) newClass.getType()).getFullyQualifiedName() : "anonymous class";
+                    if (!exceedsMaxClassMethods(newClass.getBody(), className, executionContext)) {
+                        analyze(newClass.getBody(), false, false, executionContext);
+                    }
+                }
 
-                    List<MethodWithInstanceAccess> noInstanceAccess = enrichAndFilterWithNoInstanceAccess(methods);
+                return super.visitNewClass(newClass, executionContext);
+            }
 
-                    List<JavaType.Method> toModify = filterNonStaticMethodInvocations(noInstanceAccess, this.methodsToBeStatic);
+            private void analyze(J.Block body, boolean canDeclareStaticClasses, boolean allMethods, ExecutionContext executionContext) {
+                // No need to keep analyzing if the file is going to be discarded anyway
+                if (this.timeBudget.isExhausted()) {
+                    return;
+                }
 
-                    this.methodsToBeStatic.addAll(toModify);
+                boolean unresolvedSuperclass = hasUnresolvedSuperclass(getCursor());
+                boolean unresolvedHierarchy = unresolvedSuperclass ||
+                        getCursor().getValue() instanceof J.ClassDeclaration && hasUnresolvedInterface(getCursor().getValue());
+                List<J.MethodDeclaration> methods = collectNonOverridableMethods(body, allMethods, unresolvedHierarchy, executionContext);
+
+                List<MethodWithInstanceAccess> noInstanceAccess = enrichAndFilterWithNoInstanceAccess(methods, this.fieldsToBeStatic, this.timeBudget,
+                        unresolvedSuperclass, InstanceAccessAnalyzer.get(executionContext));
+
+                List<J.ClassDeclaration> innerClasses = Boolean.TRUE.equals(makeInnerClassesStatic) && canDeclareStaticClasses ?
+                        collectPrivateInnerClasses(body) : Collections.emptyList();
+
+                List<ClassWithInstanceAccess> noOuterInstanceAccess = enrichAndFilterWithNoOuterInstanceAccess(innerClasses, this.fieldsToBeStatic, this.timeBudget,
+                        unresolvedSuperclass);
+
+                // Methods and inner classes go through the same fixpoint, since a method can instantiate an inner class
+                // and an inner class can invoke a method of the enclosing class.
+                Map<Object, Object> blockedBy = filterNonStaticDependencies(noInstanceAccess, noOuterInstanceAccess);
+
+                if (this.decisions != null) {
+                    J.CompilationUnit cu = getCursor().firstEnclosingOrThrow(J.CompilationUnit.class);
+                    String repository = cu.getMarkers().findFirst(GitProvenance.class).map(GitProvenance::getOrigin)
+                            .orElseGet(() -> cu.getMarkers().findFirst(JavaProject.class).map(JavaProject::getProjectName).orElse(""));
+                    for (J.MethodDeclaration method : methods) {
+                        JavaType.Method methodType = method.getMethodType();
+                        String className = methodType != null ? methodType.getDeclaringType().getFullyQualifiedName() : "";
+                        String signature = methodType != null ? MethodMatcher.methodPattern(methodType) : method.getSimpleName();
+                        Object blocker = blockedBy.get(methodType);
+                        MethodDecision.Decision decision = this.methodsToBeStatic.contains(methodType) ? MethodDecision.Decision.STATIC :
+                                blocker != null ? MethodDecision.Decision.BLOCKED :
+                                        noInstanceAccess.stream().anyMatch(mia -> mia.method.equals(methodType)) ? MethodDecision.Decision.COLD :
+                                                MethodDecision.Decision.INSTANCE_ACCESS;
+                        this.decisions.add(new MethodDecision(repository, cu.getSourcePath().toString(), className, signature, decision,
+                                blocker instanceof JavaType.Method ? MethodMatcher.methodPattern((JavaType.Method) blocker) : (String) blocker,
+                                profile.samples(methodType)));
+                    }
                 }
+            }
 
-                return super.visitNewClass(newClass, executionContext);
+            private List<J.ClassDeclaration> collectPrivateInnerClasses(J.Block body) {
+                // Only private classes: any other class may be instantiated as `outer.new B()` from another file.
+                return body.getStatements()
+                        .stream()
+                        .filter(statement -> statement instanceof J.ClassDeclaration)
+                        .map(J.ClassDeclaration.class::cast)
+                        .filter(cd -> cd.getKind() == J.ClassDeclaration.Kind.Type.Class)
+                        .filter(cd -> cd.hasModifier(J.Modifier.Type.Private) && !cd.hasModifier(J.Modifier.Type.Static))
+                        .filter(cd -> cd.getType() != null && !this.explicitlyEnclosedClasses.contains(cd.getType().getFullyQualifiedName()))
+                        // The serialized form of an inner class includes the enclosing instance
+                        .filter(cd -> !TypeUtils.isAssignableTo("java.io.Serializable", cd.getType()))
+                        .filter(cd -> !hasExcludedAnnotation(cd))
+                        .collect(Collectors.toList());
             }
 
-            private static List<J.MethodDeclaration> collectNonOverridableMethods(J.Block body) {
+            private List<JavaType.Variable> collectConstantFields(J.ClassDeclaration classDecl) {
+                // The serialized form of the class includes its instance fields
+                if (classDecl.getType() == null || TypeUtils.isAssignableTo("java.io.Serializable", classDecl.getType())) {
+                    return Collections.emptyList();
+                }
+                return classDecl.getBody().getStatements()
+                        .stream()
+                        .filter(statement -> statement instanceof J.VariableDeclarations)
+                        .map(J.VariableDeclarations.class::cast)
+                        .filter(vd -> vd.hasModifier(J.Modifier.Type.Private) && vd.hasModifier(J.Modifier.Type.Final) && !vd.hasModifier(J.Modifier.Type.Static))
+                        // Annotated fields may be managed by a framework (injection, persistence...)
+                        .filter(vd -> vd.getLeadingAnnotations().isEmpty())
+                        .filter(vd -> isConstantType(vd.getType()))
+                        .filter(vd -> vd.getVariables().stream().allMatch(v -> v.getVariableType() != null && isConstantExpression(v.getInitializer())))
+                        .flatMap(vd -> vd.getVariables().stream().map(J.VariableDeclarations.NamedVariable::getVariableType))
+                        .collect(Collectors.toList());
+            }
+
+            private boolean hasExcludedAnnotation(J.ClassDeclaration classDecl) {
+                return NonOverridableMethodsNoInstanceDataToStaticRecipe.hasExcludedAnnotation(classDecl, annotationMatchers);
+            }
+
+            private boolean exceedsMaxClassMethods(J.Block body, String className, ExecutionContext executionContext) {
+                if (maxClassMethods == null) {
+                    return false;
+                }
+                long methodCount = body.getStatements()
+                        .stream()
+                        .filter(statement -> statement instanceof J.MethodDeclaration)
+                        .count();
+                if (methodCount > maxClassMethods) {
+                    skip(className, SkippedAnalysis.TOO_MANY_METHODS, executionContext);
+                    return true;
+                }
+                return false;
+            }
+
+            // Private and final methods, and any method of a class that cannot be extended when it is taken as a whole. Annotated methods are only taken
+            // when they are private or final: frameworks may call the others on an instance (tests, bean properties...).
+            // Final methods, and the methods of final classes, can still override or implement another method.
+            private List<J.MethodDeclaration> collectNonOverridableMethods(J.Block body, boolean allMethods, boolean unresolvedHierarchy,
+                                                                           ExecutionContext executionContext) {
                 return body.getStatements()
                         .stream()
                         .filter(statement -> statement instanceof J.MethodDeclaration)
                         .map(J.MethodDeclaration.class::cast)
                         .filter(md -> !md.hasModifier(J.Modifier.Type.Static))
-                        .filter(md -> md.hasModifier(J.Modifier.Type.Private) || md.hasModifier(J.Modifier.Type.Final))
+                        .filter(md -> md.hasModifier(J.Modifier.Type.Private) ||
+                                (md.hasModifier(J.Modifier.Type.Final) || allMethods && md.getLeadingAnnotations().isEmpty()) &&
+                                        md.getMethodType() != null && !unresolvedHierarchy && !TypeUtils.isOverride(md.getMethodType()))
+                        .filter(md -> !this.referencedMethods.contains(md.getMethodType()))
                         .filter(md -> !md.isConstructor())
                         .filter(md -> !isSerializableException(md))
+                        .filter(md -> !exceedsMaxMethodBodyNodes(md, executionContext))
                         .collect(Collectors.toList());
 
             }
 
+            private boolean exceedsMaxMethodBodyNodes(J.MethodDeclaration methodDeclaration, ExecutionContext executionContext) {
+                if (maxMethodBodyNodes == null || methodDeclaration.getBody() == null) {
+                    return false;
+                }
+                if (NodeCountVisitor.exceeds(methodDeclaration.getBody(), maxMethodBodyNodes)) {
+                    skip(methodDeclaration.getMethodType() != null ? MethodMatcher.methodPattern(methodDeclaration.getMethodType()) : methodDeclaration.getSimpleName(), SkippedAnalysis.METHOD_BODY_TOO_LARGE, executionContext);
+                    return true;
+                }
+                return false;
+            }
+
+            private void skip(String element, String reason, ExecutionContext executionContext) {
+                J.CompilationUnit cu = getCursor().firstEnclosing(J.CompilationUnit.class);
+                String sourcePath = cu != null ? cu.getSourcePath().toString() : "";
+                skippedAnalysis.insertRow(executionContext, new SkippedAnalysis.Row(sourcePath, element, reason));
+            }
+
+            private static String className(J.ClassDeclaration classDecl) {
+                return classDecl.getType() != null ? classDecl.getType().getFullyQualifiedName() : classDecl.getSimpleName();
+            }
+
             private static boolean isSerializableException(J.MethodDeclaration methodDeclaration) {
                 JavaType.Method method = methodDeclaration.getMethodType();
                 if (method != null) {
@@ -100,42 +724,168 @@ public class NonOverridableMethodsNoInstanceDataToStaticRecipe extends Recipe {
                 return false;
             }
 
-            private static List<MethodWithInstanceAccess> enrichAndFilterWithNoInstanceAccess(List<J.MethodDeclaration> methods) {
+            private static List<MethodWithInstanceAccess> enrichAndFilterWithNoInstanceAccess(List<J.MethodDeclaration> methods, Set<JavaType.Variable> staticFields, TimeBudget timeBudget,
+                                                                                          boolean unresolvedSuperclass, InstanceAccessAnalyzer analyzer) {
                 // Enriching with AccessInstanceDataVisitor and filtering the ones that have instance access
                 return methods
                         .stream()
-                        .map(md -> new MethodWithInstanceAccess(md.getMethodType(), AccessInstanceDataVisitor.find(md.getBody())))
+                        .map(md -> new MethodWithInstanceAccess(md.getMethodType(), analyzer.find(md.getBody(), staticFields, timeBudget, unresolvedSuperclass)))
                         .filter(mia -> !mia.instanceAccess.get())
                         .collect(Collectors.toList());
             }
 
-            private static List<JavaType.Method> filterNonStaticMethodInvocations(List<MethodWithInstanceAccess> noInstanceAccess, Set<JavaType.Method> previousValidMethods) {
-                int prevSize;
-                do {
-                    // Creating a set with the current potential methods to become static.
-                    Set<JavaType.Method> validMethods = noInstanceAccess
-                            .stream()
-                            .map(mia -> mia.method)
-                            .collect(Collectors.toSet());
+            private static List<ClassWithInstanceAccess> enrichAndFilterWithNoOuterInstanceAccess(List<J.ClassDeclaration> classes, Set<JavaType.Variable> staticFields, TimeBudget timeBudget,
+                                                                                                  boolean unresolvedSuperclass) {
+                // Enriching with AccessInstanceDataVisitor, but only looking for access to the enclosing instance
+                return classes
+                        .stream()
+                        .map(cd -> {
+                            InstanceAccess outerInstanceAccess = AccessInstanceDataVisitor.find(cd.getBody(), staticFields, timeBudget, cd.getType(),
+                                    unresolvedSuperclass || AccessInstanceDataVisitor.hasUnresolvedSuperclass(cd.getType()));
+                            // Extending another inner class also requires the enclosing instance, unless it becomes static too.
+                            // An unknown superclass may be an inner class as well.
+                            JavaType.FullyQualified supertype = cd.getType().getSupertype();
+                            if (supertype != null && supertype.getOwningClass() != null && !supertype.hasFlags(Flag.Static)) {
+                                outerInstanceAccess.addClassInstantiation(supertype.getFullyQualifiedName());
+                            } else if (AccessInstanceDataVisitor.hasUnresolvedSuperclass(cd.getType())) {
+                                outerInstanceAccess.set();
+                            }
+                            return new ClassWithInstanceAccess(cd.getType().getFullyQualifiedName(), outerInstanceAccess);
+                        })
+                        .filter(cia -> !cia.instanceAccess.get())
+                        .collect(Collectors.toList());
+            }
 
-                    // Also adding previous methods from upper scopes
-                    validMethods.addAll(previousValidMethods);
+            // Final classes, records, enums without constant bodies, and private classes not extended in the file.
+            private boolean isEffectivelyFinal(J.ClassDeclaration classDecl) {
+                JavaType.FullyQualified type = classDecl.getType();
+                if (type == null || classDecl.getKind() == J.ClassDeclaration.Kind.Type.Interface ||
+                        classDecl.getKind() == J.ClassDeclaration.Kind.Type.Annotation) {
+                    return false;
+                }
+                // The compiler marks records, and enums without constant bodies, as final too
+                return type.hasFlags(Flag.Final) ||
+                        type.hasFlags(Flag.Private) && !this.subclassedClasses.contains(type.getFullyQualifiedName());
+            }
 
-                    // We keep the previous size, to see if we actually removed any methods, and we need to iterate again
-                    prevSize = noInstanceAccess.size();
-                    // We remove all methods that have invocations to methods that won't become static
-                    noInstanceAccess = noInstanceAccess
-                            .stream()
-                            .filter(mia -> validMethods.containsAll(mia.instanceAccess.methodInvocations))
-                            .collect(Collectors.toList());
+            // Private classes, and the classes nested in them, can only be used from the file declaring them.
+            private static boolean isPrivatelyNested(Cursor cursor) {
+                return cursor.getPathAsStream()
+                        .anyMatch(element -> element instanceof J.ClassDeclaration && ((J.ClassDeclaration) element).hasModifier(J.Modifier.Type.Private));
+            }
 
-                } while (noInstanceAccess.size() < prevSize && noInstanceAccess.size() > 0);
-                // We keep iterating if we removed some methods, to propagate the changes in invocation chains
+            private static Set<String> collectSubclassedClasses(J.CompilationUnit cu) {
+                return new ChainVisitor<Set<String>>() {
+                    @Override
+                    public J.ClassDeclaration visitClassDeclaration(J.ClassDeclaration classDecl, Set<String> classes) {
+                        JavaType.FullyQualified supertype = classDecl.getExtends() != null ? TypeUtils.asFullyQualified(classDecl.getExtends().getType()) : null;
+                        if (supertype != null) {
+                            classes.add(supertype.getFullyQualifiedName());
+                        }
+                        return super.visitClassDeclaration(classDecl, classes);
+                    }
 
-                return noInstanceAccess
-                        .stream()
-                        .map(mia -> mia.method)
-                        .collect(Collectors.toList());
+                    @Override
+                    public J.NewClass visitNewClass(J.NewClass newClass, Set<String> classes) {
+                        JavaType.FullyQualified supertype = newClass.getBody() != null && newClass.getClazz() != null ?
+                                TypeUtils.asFullyQualified(newClass.getClazz().getType()) : null;
+                        if (supertype != null) {
+                            classes.add(supertype.getFullyQualifiedName());
+                        }
+                        return super.visitNewClass(newClass, classes);
+                    }
+                }.reduce(cu, new HashSet<>());
+            }
+
+            private static Set<JavaType.Method> collectMethodReferences(J.CompilationUnit cu) {
+                return new ChainVisitor<Set<JavaType.Method>>() {
+                    @Override
+                    public J.MemberReference visitMemberReference(J.MemberReference memberRef, Set<JavaType.Method> methods) {
+                        // `this::m` and `A.this::m` are rewritten to `A::m` when `m` becomes static
+                        Expression containing = memberRef.getContaining();
+                        if (!isExplicitThis(containing) && !isQualifiedThis(containing) && memberRef.getMethodType() != null) {
+                            methods.add(memberRef.getMethodType());
+                        }
+                        return super.visitMemberReference(memberRef, methods);
+                    }
+                }.reduce(cu, new HashSet<>());
+            }
+
+            private static Set<String> collectExplicitlyEnclosedClasses(J.CompilationUnit cu) {
+                return new ChainVisitor<Set<String>>() {
+                    @Override
+                    public J.NewClass visitNewClass(J.NewClass newClass, Set<String> classes) {
+                        JavaType.FullyQualified clazz = TypeUtils.asFullyQualified(newClass.getType());
+                        if (newClass.getEnclosing() != null && clazz != null) {
+                            classes.add(clazz.getFullyQualifiedName());
+                        }
+                        return super.visitNewClass(newClass, classes);
+                    }
+                }.reduce(cu, new HashSet<>());
+            }
+
+            // Returns the candidates that do not become static, with the method or class that kept each of them from it.
+            private Map<Object, Object> filterNonStaticDependencies(List<MethodWithInstanceAccess> noInstanceAccess, List<ClassWithInstanceAccess> noOuterInstanceAccess) {
+                // Potential methods and inner classes to become static, by method type or class name
+                Map<Object, InstanceAccess> candidates = new LinkedHashMap<>();
+                noInstanceAccess.forEach(mia -> candidates.put(mia.method, mia.instanceAccess));
+                noOuterInstanceAccess.forEach(cia -> candidates.put(cia.clazz, cia.instanceAccess));
+
+                // We build the dependency graph backwards: from each invoked method or instantiated class, to the
+                // candidates that depend on it. Candidates depending on a method or class that won't become static
+                // (neither a candidate here nor one from upper scopes) are the first ones to remove.
+                Map<Object, List<Object>> dependents = new HashMap<>();
+                Deque<Object> toRemove = new ArrayDeque<>();
+                Map<Object, Object> blockedBy = new HashMap<>();
+                candidates.forEach((candidate, instanceAccess) ->
+                        Stream.concat(instanceAccess.getMethodInvocations().stream(), instanceAccess.getClassInstantiations().stream())
+                                .forEach(dependency -> {
+                                    dependents.computeIfAbsent(dependency, d -> new ArrayList<>()).add(candidate);
+                                    if (!candidates.containsKey(dependency) && !this.methodsToBeStatic.contains(dependency) && !this.classesToBeStatic.contains(dependency)) {
+                                        toRemove.add(candidate);
+                                        blockedBy.putIfAbsent(candidate, dependency);
+                                    }
+                                }));
+
+                // Removing a candidate only invalidates the candidates depending on it, so the removals are propagated
+                // up the invocation chains, and each edge of the graph is followed once.
+                // (unless we ran out of time, then the whole file is discarded)
+                while (!toRemove.isEmpty() && !this.timeBudget.isExhausted()) {
+                    Object removed = toRemove.poll();
+                    if (candidates.remove(removed) != null) {
+                        for (Object dependent : dependents.getOrDefault(removed, Collections.emptyList())) {
+                            toRemove.add(dependent);
+                            blockedBy.putIfAbsent(dependent, removed);
+                        }
+                    }
+                }
+
+                // With a minimum of execution samples, we only keep the hot methods (and the inner classes), then
+                // whatever they depend on, so they can still become static.
+                if (minExecutionSamples != null) {
+                    Deque<Object> toKeep = candidates.keySet()
+                            .stream()
+                            .filter(candidate -> !(candidate instanceof JavaType.Method) || profile.samples((JavaType.Method) candidate) >= minExecutionSamples)
+                            .collect(Collectors.toCollection(ArrayDeque::new));
+                    Set<Object> kept = new HashSet<>();
+                    while (!toKeep.isEmpty()) {
+                        Object candidate = toKeep.poll();
+                        if (candidates.containsKey(candidate) && kept.add(candidate)) {
+                            toKeep.addAll(candidates.get(candidate).getMethodInvocations());
+                            toKeep.addAll(candidates.get(candidate).getClassInstantiations());
+                        }
+                    }
+                    candidates.keySet().retainAll(kept);
+                }
+
+                candidates.keySet().forEach(candidate -> {
+                    if (candidate instanceof JavaType.Method) {
+                        this.methodsToBeStatic.add((JavaType.Method) candidate);
+                    } else {
+                        this.classesToBeStatic.add((String) candidate);
+                    }
+                });
+                return blockedBy;
             }
 
             @Override
@@ -144,211 +894,873 @@ public class NonOverridableMethodsNoInstanceDataToStaticRecipe extends Recipe {
 
                 // All the analysis have already been done in the previous visit methods,
                 // Here we just need to check the list of methods to become static and apply the modifier if we found it.
+                // Non-overridable methods always have a modifier already, so the new one goes right after it and the
+                // rest of the method is printed exactly as it was.
                 if (this.methodsToBeStatic.contains(methodDec.getMethodType())) {
-                    methodDeclaration = autoFormat(methodDeclaration.withModifiers(ListUtils.concat(methodDeclaration.getModifiers(), new J.Modifier(Tree.randomId(), Space.EMPTY, Markers.EMPTY, J.Modifier.Type.Static, Collections.emptyList()))), executionContext);
+                    if (methodDeclaration.getModifiers().isEmpty()) {
+                        // Methods of final classes may have no modifier at all (nor annotations), `static` then goes first
+                        J.TypeParameters typeParameters = methodDeclaration.getPadding().getTypeParameters();
+                        methodDeclaration = typeParameters != null ?
+                                methodDeclaration.getPadding().withTypeParameters(typeParameters.withPrefix(Space.format(" "))) :
+                                methodDeclaration.withReturnTypeExpression(methodDeclaration.getReturnTypeExpression().withPrefix(Space.format(" ")));
+                        methodDeclaration = methodDeclaration.withModifiers(List.of(new J.Modifier(Tree.randomId(), Space.EMPTY, Markers.EMPTY, J.Modifier.Type.Static, Collections.emptyList())));
+                    } else {
+                        methodDeclaration = methodDeclaration.withModifiers(ListUtils.concat(methodDeclaration.getModifiers(), new J.Modifier(Tree.randomId(), Space.format(" "), Markers.EMPTY, J.Modifier.Type.Static, Collections.emptyList())));
+                    }
+                    if (executionProfile != null) {
+                        impact(enclosingClassName()).executionSamples += profile.samples(methodDec.getMethodType());
+                    }
                 }
 
                 return methodDeclaration;
             }
+
+            @Override
+            public J.VariableDeclarations visitVariableDeclarations(J.VariableDeclarations multiVariable, ExecutionContext executionContext) {
+                J.VariableDeclarations variableDeclarations = super.visitVariableDeclarations(multiVariable, executionContext);
+
+                // Constant fields become `private static final`, the `static` goes right before the `final`
+                if (!variableDeclarations.getVariables().isEmpty() && this.fieldsToBeStatic.contains(variableDeclarations.getVariables().get(0).getVariableType())) {
+                    variableDeclarations = variableDeclarations.withModifiers(ListUtils.flatMap(variableDeclarations.getModifiers(), modifier ->
+                            modifier.getType() == J.Modifier.Type.Final ?
+                                    List.of(new J.Modifier(Tree.randomId(), modifier.getPrefix(), Markers.EMPTY, J.Modifier.Type.Static, Collections.emptyList()), modifier.withPrefix(Space.format(" "))) :
+                                    modifier));
+                }
+
+                return variableDeclarations;
+            }
+
+            @Override
+            public J.MemberReference visitMemberReference(J.MemberReference memberReference, ExecutionContext executionContext) {
+                J.MemberReference memberRef = super.visitMemberReference(memberReference, executionContext);
+
+                // `this::m` keeps capturing `this` even if `m` is static now. Referencing it through its class makes
+                // the lambda non-capturing, so the JVM can reuse a single instance of it.
+                if (isExplicitThis(memberRef.getContaining()) && this.methodsToBeStatic.contains(memberRef.getMethodType()) &&
+                        isNameable(memberRef.getMethodType().getDeclaringType())) {
+                    JavaType.FullyQualified owner = memberRef.getMethodType().getDeclaringType();
+                    memberRef = memberRef.withContaining(new J.Identifier(Tree.randomId(), memberRef.getContaining().getPrefix(), Markers.EMPTY, owner.getClassName(), owner, null));
+                    impact(enclosingClassName()).nonCapturingMethodReferences++;
+                }
+
+                // Same for `A.this::m`, which does not even compile once `m` is static. The class it is qualified with
+                // is the one whose instance it was, so `m` can be referenced through it.
+                else if (isQualifiedThis(memberRef.getContaining()) && this.methodsToBeStatic.contains(memberRef.getMethodType())) {
+                    memberRef = memberRef.withContaining(((J.FieldAccess) memberRef.getContaining()).getTarget().withPrefix(memberRef.getContaining().getPrefix()));
+                    impact(enclosingClassName()).nonCapturingMethodReferences++;
+                }
+
+                return memberRef;
+            }
+
+            @Override
+            protected J.MethodInvocation visitMethodInvocationLink(J.MethodInvocation methodInvocation, ExecutionContext executionContext) {
+
+                if (this.methodsToBeStatic.contains(methodInvocation.getMethodType())) {
+                    Impact impact = impact(enclosingClassName());
+                    impact.staticCallSites++;
+                    // Any other receiver is still evaluated, and then discarded
+                    if (methodInvocation.getSelect() == null || isExplicitThis(methodInvocation.getSelect())) {
+                        impact.receiverEvaluationsRemoved++;
+                    }
+
+                    // Same for `this.m()`: once `m` is static, the invocation (and any lambda around it) does not need `this`.
+                    if (isExplicitThis(methodInvocation.getSelect())) {
+                        methodInvocation = methodInvocation.withSelect(null);
+                    }
+                }
+
+                return methodInvocation;
+            }
+
+            private Impact impact(String className) {
+                return this.impacts.computeIfAbsent(className, name -> new Impact());
+            }
+
+            private String enclosingClassName() {
+                J.ClassDeclaration classDecl = getCursor().firstEnclosing(J.ClassDeclaration.class);
+                return classDecl == null ? "" : className(classDecl);
+            }
         };
     }
 
-    // Helper class to encapsulate the returned data of the AccessInstanceDataVisitor.
-    // We have a flag that starts at false, and can only be set up to true.
-    // We also have a list of method invocations to non-static private or final methods, to check later on
-    // Due to the short-circuit that we have on the visitor, if the flag is set to true, the list of method invocations
-    // may be incomplete.
-    private static class InstanceAccess {
-        private boolean instanceAccess = false;
-        private Set<JavaType.Method> methodInvocations = new HashSet<>();
+    @Nullable
+    private ExecutionProfile loadExecutionProfile() {
+        if (executionProfile == null) {
+            return ExecutionProfile.EMPTY;
+        }
+        ExecutionProfile profile = loadedExecutionProfile.get();
+        if (profile == null) {
+            try {
+                profile = ExecutionProfile.read(Paths.get(executionProfile));
+            } catch (IOException e) {
+                return null;
+            }
+            loadedExecutionProfile.compareAndSet(null, profile);
+        }
+        return profile;
+    }
+
+    // Classes carrying an excluded annotation, with their nested classes, and the nearest enclosing class and method
+    // when they are over the size limits.
+    private boolean isExcluded(Cursor cursor, List<AnnotationMatcher> annotationMatchers) {
+        boolean nearestClass = true;
+        boolean nearestMethod = true;
+        for (Iterator<Object> path = cursor.getPath(); path.hasNext(); ) {
+            Object value = path.next();
+            if (value instanceof J.ClassDeclaration) {
+                J.ClassDeclaration classDecl = (J.ClassDeclaration) value;
+                if (hasExcludedAnnotation(classDecl, annotationMatchers) || nearestClass && maxClassMethods != null &&
+                        classDecl.getBody().getStatements().stream().filter(statement -> statement instanceof J.MethodDeclaration).count() > maxClassMethods) {
+                    return true;
+                }
+                nearestClass = false;
+            } else if (value instanceof J.MethodDeclaration && nearestMethod) {
+                J.Block body = ((J.MethodDeclaration) value).getBody();
+                if (maxMethodBodyNodes != null && body != null && NodeCountVisitor.exceeds(body, maxMethodBodyNodes)) {
+                    return true;
+                }
+                nearestMethod = false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasExcludedAnnotation(J.ClassDeclaration classDecl, List<AnnotationMatcher> annotationMatchers) {
+        return classDecl.getLeadingAnnotations().stream().anyMatch(a -> annotationMatchers.stream().anyMatch(matcher -> matcher.matches(a)));
+    }
+
+    private static List<PathMatcher> pathMatchers(@Nullable List<String> globs) {
+        return globs == null ? Collections.emptyList() : globs
+                .stream()
+                .map(glob -> FileSystems.getDefault().getPathMatcher("glob:" + glob))
+                .collect(Collectors.toList());
+    }
+
+    // The hash of the path with `/` separators, so a file lands in the same shard on every run and every platform.
+    private static int shard(Path sourcePath, int shardCount) {
+        return Math.floorMod(sourcePath.toString().replace('\\', '/').hashCode(), shardCount);
+    }
 
-        public void set() {
-            this.instanceAccess = true;
+    // Before Java 16, only top-level classes and static nested classes (and enums and records, which are
+    // implicitly static) can declare static nested classes and non-constant static fields.
+    private static boolean canDeclareStaticMembers(J.ClassDeclaration classDecl, Cursor classCursor) {
+        // Static members cannot use the type parameters of the class, we do not even try.
+        if (classDecl.getTypeParameters() != null && !classDecl.getTypeParameters().isEmpty()) {
+            return false;
+        }
+        switch (classDecl.getKind()) {
+            case Enum:
+            case Record:
+                return true;
+            case Class:
+                return classDecl.hasModifier(J.Modifier.Type.Static) ||
+                        classCursor.getParentTreeCursor().getValue() instanceof J.CompilationUnit;
+            default:
+                // Nested classes of interfaces and annotations are already static
+                return false;
         }
+    }
 
-        public boolean get() {
-            return this.instanceAccess;
+    // Only primitives and strings can be compile-time constants, which are also allowed in inner classes.
+    private static boolean isConstantType(@Nullable JavaType type) {
+        return (type instanceof JavaType.Primitive && type != JavaType.Primitive.Null && type != JavaType.Primitive.None && type != JavaType.Primitive.Void) ||
+                TypeUtils.isString(type);
+    }
+
+    // Literals and operators over them, a subset of the compile-time constant expressions.
+    private static boolean isConstantExpression(@Nullable J expression) {
+        if (expression instanceof J.Literal) {
+            return ((J.Literal) expression).getValue() != null;
+        } else if (expression instanceof J.Parentheses) {
+            return isConstantExpression(((J.Parentheses<?>) expression).getTree());
+        } else if (expression instanceof J.Unary) {
+            return isConstantExpression(((J.Unary) expression).getExpression());
+        } else if (expression instanceof J.Binary) {
+            return isConstantExpression(((J.Binary) expression).getLeft()) && isConstantExpression(((J.Binary) expression).getRight());
+        } else if (expression instanceof J.Ternary) {
+            J.Ternary ternary = (J.Ternary) expression;
+            return isConstantExpression(ternary.getCondition()) && isConstantExpression(ternary.getTruePart()) && isConstantExpression(ternary.getFalsePart());
         }
+        return false;
+    }
 
-        public void addMethodInvocation(JavaType.Method method) {
-            this.methodInvocations.add(method);
+    // Source files whose decisions have already been sent to the sink in this run
+    private static Set<Path> reportedSourcePaths(ExecutionContext executionContext) {
+        String key = DecisionSink.class.getName() + ".reported";
+        Set<Path> reported = executionContext.getMessage(key);
+        if (reported == null) {
+            reported = ConcurrentHashMap.newKeySet();
+            executionContext.putMessage(key, reported);
         }
+        return reported;
+    }
 
-        public Set<JavaType.Method> getMethodInvocations() {
-            return this.methodInvocations;
+    // Interfaces the parser cannot find are left out of the type of the class, only the tree still has them.
+    private static boolean hasUnresolvedInterface(J.ClassDeclaration classDecl) {
+        return classDecl.getImplements() != null && classDecl.getImplements().stream()
+                .map(i -> TypeUtils.asFullyQualified(i.getType()))
+                .anyMatch(i -> i == null || i instanceof JavaType.Unknown);
+    }
+
+    // Looks for an unresolved superclass in the classes enclosing the cursor, anonymous ones included.
+    // Their inherited members may be used without qualification anywhere in the nested code.
+    static boolean hasUnresolvedSuperclass(Cursor cursor) {
+        for (Iterator<Object> path = cursor.getPath(); path.hasNext(); ) {
+            Object value = path.next();
+            if (value instanceof J.ClassDeclaration && AccessInstanceDataVisitor.hasUnresolvedSuperclass(((J.ClassDeclaration) value).getType()) ||
+                    value instanceof J.NewClass && ((J.NewClass) value).getBody() != null &&
+                            AccessInstanceDataVisitor.hasUnresolvedSuperclass(TypeUtils.asFullyQualified(((J.NewClass) value).getType()))) {
+                return true;
+            }
         }
+        return false;
     }
 
+    static boolean isExplicitThis(@Nullable Expression expression) {
+        return expression instanceof J.Identifier && ((J.Identifier) expression).getSimpleName().equals("this");
+    }
 
-    @Value
-    @EqualsAndHashCode(callSuper = true)
-    private static class AccessInstanceDataVisitor extends JavaIsoVisitor<InstanceAccess> {
+    static boolean isQualifiedThis(@Nullable Expression expression) {
+        return expression instanceof J.FieldAccess && ((J.FieldAccess) expression).getSimpleName().equals("this");
+    }
+
+    // Anonymous and local classes cannot be referenced by name from everywhere in the class, so `this::m` is kept
+    // for their methods.
+    static boolean isNameable(JavaType.FullyQualified type) {
+        return Arrays.stream(type.getClassName().split("\\."))
+                .allMatch(name -> !name.isEmpty() && Character.isJavaIdentifierStart(name.charAt(0)));
+    }
+
+
+    // Helper class to encapsulate the returned data of the FieldUsageVisitor: the private instance fields declared in
+    // a compilation unit, and the ones that are read or written anywhere in it.
+    private static class FieldUsage {
+        private final List<J.VariableDeclarations.NamedVariable> declarations = new ArrayList<>();
+        private final Set<JavaType.Variable> read = new HashSet<>();
+        private final Set<JavaType.Variable> written = new HashSet<>();
+    }
+
+    // Visitor that collects the references to the private instance fields of a compilation unit,
+    // resolving each identifier with getFieldType().
+    private static class FieldUsageVisitor extends ChainVisitor<FieldUsage> {
+        // Number of annotated classes enclosing the cursor
+        private int annotatedClasses;
 
-        static InstanceAccess find(J.Block body) {
-            return new AccessInstanceDataVisitor().reduce(body, new InstanceAccess());
+        static FieldUsage find(J.CompilationUnit cu) {
+            return new FieldUsageVisitor().reduce(cu, new FieldUsage());
         }
 
+        @Override
+        public J.ClassDeclaration visitClassDeclaration(J.ClassDeclaration classDecl, FieldUsage fieldUsage) {
+            // The fields of annotated classes, and of the classes nested in them, may be used by generated code
+            // (Lombok getters...) or belong to excluded classes. Their uses are still looked for.
+            boolean annotated = !classDecl.getAllAnnotations().isEmpty();
+            if (annotated) {
+                this.annotatedClasses++;
+            }
+            try {
+                return super.visitClassDeclaration(classDecl, fieldUsage);
+            } finally {
+                if (annotated) {
+                    this.annotatedClasses--;
+                }
+            }
+        }
 
         @Override
-        public J.Identifier visitIdentifier(J.Identifier id, InstanceAccess instanceAccess) {
-            // Return quickly if we already found an instance access before
-            if (instanceAccess.get()) {
-                return id;
+        public J.VariableDeclarations visitVariableDeclarations(J.VariableDeclarations multiVariable, FieldUsage fieldUsage) {
+            // Annotated fields may be used by a framework (injection, persistence...), and the serialized form of a
+            // class includes all its instance fields.
+            if (this.annotatedClasses == 0 && multiVariable.hasModifier(J.Modifier.Type.Private) && !multiVariable.hasModifier(J.Modifier.Type.Static) &&
+                    multiVariable.getLeadingAnnotations().isEmpty()) {
+                for (J.VariableDeclarations.NamedVariable variable : multiVariable.getVariables()) {
+                    JavaType.Variable variableType = variable.getVariableType();
+                    if (variableType != null && variableType.getOwner() instanceof JavaType.FullyQualified &&
+                            !TypeUtils.isAssignableTo("java.io.Serializable", variableType.getOwner())) {
+                        fieldUsage.declarations.add(variable);
+                    }
+                }
             }
+            return super.visitVariableDeclarations(multiVariable, fieldUsage);
+        }
 
-            J.Identifier identifier = super.visitIdentifier(id, instanceAccess);
+        @Override
+        public J.Identifier visitIdentifier(J.Identifier id, FieldUsage fieldUsage) {
+            J.Identifier identifier = super.visitIdentifier(id, fieldUsage);
 
-            Cursor parent = getCursor().getParent();
-            if (parent != null) {
-                // Discard if the identifier is a NamedVariable
-                if (parent.getValue() instanceof J.VariableDeclarations.NamedVariable) {
-                    return identifier;
-                }
+            JavaType.Variable fieldType = identifier.getFieldType();
+            if (fieldType == null || !(fieldType.getOwner() instanceof JavaType.Class)) {
+                return identifier;
+            }
 
-                // Discard if the identifier is a ParametrizedType
-                if (parent.getValue() instanceof J.ParameterizedType) {
-                    return identifier;
-                }
+            Cursor parent = getCursor().getParentTreeCursor();
+            // Discard the name of the declaration itself
+            if (parent.getValue() instanceof J.VariableDeclarations.NamedVariable &&
+                    ((J.VariableDeclarations.NamedVariable) parent.getValue()).getName() == id) {
+                return identifier;
+            }
 
-                // Discard if the identifier is a ClassDeclaration
-                if (parent.getValue() instanceof J.ClassDeclaration) {
-                    return identifier;
+            // `this.field` and `other.field` are written or read as a whole
+            J reference = identifier;
+            if (parent.getValue() instanceof J.FieldAccess && ((J.FieldAccess) parent.getValue()).getName() == id) {
+                reference = parent.getValue();
+                parent = parent.getParentTreeCursor();
+            }
+
+            // Only plain assignments are writes, compound assignments and increments read the field too
+            if (parent.getValue() instanceof J.Assignment && ((J.Assignment) parent.getValue()).getVariable() == reference) {
+                fieldUsage.written.add(fieldType);
+            } else {
+                fieldUsage.read.add(fieldType);
+            }
+
+            return identifier;
+        }
+    }
+
+    // Visitor that replaces the creation of stateless anonymous classes inside methods with `private static final`
+    // constants of the enclosing class, so each call does not allocate a new instance anymore.
+    // It runs once the main analysis is done, so the anonymous classes may use the methods and inner classes that
+    // become static.
+    @Value
+    @EqualsAndHashCode(callSuper = true)
+    private static class AnonymousClassHoistingVisitor extends JavaVisitor<ExecutionContext> {
+        private static final String HOISTED_CONSTANTS = "HOISTED_CONSTANTS";
+
+        Set<JavaType.Method> methodsToBeStatic;
+        Set<String> classesToBeStatic;
+        Set<JavaType.Variable> fieldsToBeStatic;
+        TimeBudget timeBudget;
+        Predicate<Cursor> excluded;
+
+        @Override
+        public J visitClassDeclaration(J.ClassDeclaration classDecl, ExecutionContext executionContext) {
+            J.ClassDeclaration classDeclaration = (J.ClassDeclaration) super.visitClassDeclaration(classDecl, executionContext);
+
+            List<J.VariableDeclarations> constants = getCursor().pollMessage(HOISTED_CONSTANTS);
+            if (constants != null) {
+                Cursor bodyCursor = new Cursor(getCursor(), classDeclaration.getBody());
+                List<Statement> formatted = constants
+                        .stream()
+                        .map(constant -> (Statement) autoFormat(constant, executionContext, bodyCursor))
+                        .collect(Collectors.toList());
+                // Keeping the constants apart from the rest of the members, with a blank line.
+                // The constants of an enum must come first, the hoisted ones go right after them.
+                List<Statement> statements = classDeclaration.getBody().getStatements();
+                int index = !statements.isEmpty() && statements.get(0) instanceof J.EnumValueSet ? 1 : 0;
+                if (index == 1) {
+                    formatted = ListUtils.mapFirst(formatted, constant -> constant.withPrefix(constant.getPrefix().withWhitespace("\n" + constant.getPrefix().getWhitespace())));
                 }
+                List<Statement> members = ListUtils.mapFirst(statements.subList(index, statements.size()), statement ->
+                        statement.getPrefix().getWhitespace().contains("\n\n") ? statement :
+                                statement.withPrefix(statement.getPrefix().withWhitespace("\n" + statement.getPrefix().getWhitespace())));
+                classDeclaration = classDeclaration.withBody(classDeclaration.getBody().withStatements(
+                        ListUtils.concatAll(ListUtils.concatAll(statements.subList(0, index), formatted), members)));
+            }
 
-                // Discard if the identifier is a MethodDeclaration
-                if (parent.getValue() instanceof J.MethodDeclaration) {
-                    return identifier;
+            return classDeclaration;
+        }
+
+        @Override
+        public J visitNewClass(J.NewClass nc, ExecutionContext executionContext) {
+            J j = super.visitNewClass(nc, executionContext);
+            if (!(j instanceof J.NewClass)) {
+                return j;
+            }
+            J.NewClass newClass = (J.NewClass) j;
+
+            Cursor classCursor = enclosingStaticContext();
+            if (classCursor == null || !isHoistable(newClass) || this.excluded.test(getCursor())) {
+                return newClass;
+            }
+
+            J.ClassDeclaration classDecl = classCursor.getValue();
+            List<J.VariableDeclarations> constants = classCursor.computeMessageIfAbsent(HOISTED_CONSTANTS, k -> new ArrayList<>());
+            String name = uniqueName(constantName(TypeUtils.asClass(newClass.getType())), classDecl, constants);
+
+            JavaType fieldType = newClass.getClazz() != null ? newClass.getClazz().getType() : null;
+            JavaType.Variable variableType = new JavaType.Variable(null, Flag.flagsToBitMap(Set.of(Flag.Private, Flag.Static, Flag.Final)), name, classDecl.getType(), fieldType, Collections.emptyList());
+            constants.add(new J.VariableDeclarations(
+                    Tree.randomId(),
+                    Space.format("\n"),
+                    Markers.EMPTY,
+                    Collections.emptyList(),
+                    List.of(
+                            new J.Modifier(Tree.randomId(), Space.EMPTY, Markers.EMPTY, J.Modifier.Type.Private, Collections.emptyList()),
+                            new J.Modifier(Tree.randomId(), Space.format(" "), Markers.EMPTY, J.Modifier.Type.Static, Collections.emptyList()),
+                            new J.Modifier(Tree.randomId(), Space.format(" "), Markers.EMPTY, J.Modifier.Type.Final, Collections.emptyList())),
+                    newClass.getClazz().withPrefix(Space.format(" ")),
+                    null,
+                    Collections.emptyList(),
+                    List.of(JRightPadded.build(new J.VariableDeclarations.NamedVariable(
+                            Tree.randomId(),
+                            Space.format(" "),
+                            Markers.EMPTY,
+                            new J.Identifier(Tree.randomId(), Space.EMPTY, Markers.EMPTY, name, fieldType, variableType),
+                            Collections.emptyList(),
+                            new JLeftPadded<>(Space.format(" "), newClass.withPrefix(Space.format(" ")), Markers.EMPTY),
+                            variableType)))));
+
+            return new J.Identifier(Tree.randomId(), newClass.getPrefix(), Markers.EMPTY, name, fieldType, variableType);
+        }
+
+        // The anonymous class must be created inside a method (not a field initializer) of a class that can declare
+        // static fields, and not inside another anonymous or local class.
+        private @Nullable Cursor enclosingStaticContext() {
+            boolean inMethod = false;
+            for (Cursor c = getCursor().getParent(); c != null; c = c.getParent()) {
+                Object value = c.getValue();
+                if (value instanceof J.MethodDeclaration) {
+                    // Constants cannot use the type parameters of the method
+                    J.MethodDeclaration method = (J.MethodDeclaration) value;
+                    if (method.getTypeParameters() != null && !method.getTypeParameters().isEmpty()) {
+                        return null;
+                    }
+                    inMethod = true;
+                } else if (value instanceof J.NewClass && ((J.NewClass) value).getBody() != null) {
+                    return null;
+                } else if (value instanceof J.ClassDeclaration) {
+                    return inMethod && canDeclareStaticMembers((J.ClassDeclaration) value, c) ? c : null;
                 }
+            }
+            return null;
+        }
 
-                // Discard if identifier in MethodInvocation: analyzing those in visitMethodInvocation
-                if (parent.getValue() instanceof J.MethodInvocation) {
-                    return identifier;
+        private boolean isHoistable(J.NewClass newClass) {
+            if (newClass.getBody() == null || newClass.getEnclosing() != null || newClass.getClazz() == null ||
+                    !(newClass.getType() instanceof JavaType.Class)) {
+                return false;
+            }
+
+            // Constructor arguments are evaluated on each call
+            if (newClass.getArguments().stream().anyMatch(arg -> !(arg instanceof J.Empty))) {
+                return false;
+            }
+
+            // A diamond `new Comparator<>() {}` cannot be used as the type of the constant
+            if (newClass.getClazz() instanceof J.ParameterizedType) {
+                List<Expression> typeParameters = ((J.ParameterizedType) newClass.getClazz()).getTypeParameters();
+                if (typeParameters == null || typeParameters.stream().anyMatch(tp -> tp instanceof J.Empty)) {
+                    return false;
                 }
+            }
 
-                // Discard if identifier in NewClass: analyzing those in visitNewClass
-                if (parent.getValue() instanceof J.NewClass) {
-                    return identifier;
+            // Instances with their own state cannot be shared
+            if (newClass.getBody().getStatements().stream().anyMatch(statement -> statement instanceof J.VariableDeclarations || statement instanceof J.Block)) {
+                return false;
+            }
+
+            // Without the type of the base class, nothing can be told about it
+            JavaType.Class clazz = TypeUtils.asClass(newClass.getType());
+            if (clazz == null || hasUnresolvedSuperclass(getCursor())) {
+                return false;
+            }
+
+            // A base class may have state of its own (a `Thread` can only be started once), so only the anonymous
+            // classes implementing interfaces are shared
+            if (clazz.getSupertype() == null || !"java.lang.Object".equals(clazz.getSupertype().getFullyQualifiedName())) {
+                return false;
+            }
+
+            // Types declared in a method cannot be seen from the fields of the class
+            if (usesLocalTypes(newClass)) {
+                return false;
+            }
+
+            // Looking for access to the enclosing instance or captured locals, as we do for inner classes
+            InstanceAccess enclosingAccess = AccessInstanceDataVisitor.find(newClass.getBody(), this.fieldsToBeStatic, this.timeBudget, clazz, false);
+            return !enclosingAccess.get() && enclosingAccess.dependsOnlyOn(this.methodsToBeStatic, this.classesToBeStatic);
+        }
+
+        // Local classes, records, enums and interfaces of the enclosing methods can only be named in the source through
+        // an identifier, so any identifier of one of those types keeps the anonymous class where it is.
+        private boolean usesLocalTypes(J.NewClass newClass) {
+            Set<String> localTypes = new HashSet<>();
+            for (Iterator<Object> path = getCursor().getPath(); path.hasNext(); ) {
+                Object value = path.next();
+                if (value instanceof J.MethodDeclaration && ((J.MethodDeclaration) value).getBody() != null) {
+                    new JavaIsoVisitor<Set<String>>() {
+                        @Override
+                        public J.ClassDeclaration visitClassDeclaration(J.ClassDeclaration classDecl, Set<String> types) {
+                            if (classDecl.getType() != null) {
+                                types.add(classDecl.getType().getFullyQualifiedName());
+                            }
+                            return super.visitClassDeclaration(classDecl, types);
+                        }
+                    }.visit(((J.MethodDeclaration) value).getBody(), localTypes);
                 }
+            }
+            if (localTypes.isEmpty()) {
+                return false;
+            }
 
-                // Discard if identifier not top-level of FieldAccess
-                // Since we will keep the top-level (target) of FieldAccess, no need to have a separate visitor
-                // for FieldAccess. We will just check it here if it targets our instance object class.
-                if (parent.getValue() instanceof JLeftPadded) {
-                    Cursor parent2 = parent.getParent();
-                    if (parent2 != null && parent2.getValue() instanceof J.FieldAccess) {
-                        return identifier;
+            return new JavaIsoVisitor<AtomicBoolean>() {
+                @Override
+                public J.Identifier visitIdentifier(J.Identifier identifier, AtomicBoolean uses) {
+                    JavaType type = identifier.getType();
+                    while (type instanceof JavaType.Array) {
+                        type = ((JavaType.Array) type).getElemType();
+                    }
+                    JavaType.FullyQualified fullyQualified = TypeUtils.asFullyQualified(type);
+                    if (fullyQualified != null && localTypes.contains(fullyQualified.getFullyQualifiedName())) {
+                        uses.set(true);
                     }
+                    return identifier;
                 }
+            }.reduce(newClass, new AtomicBoolean()).get();
+        }
+
+        // `new Comparator<String>() {...}` becomes `COMPARATOR`
+        private static String constantName(JavaType.Class anonymous) {
+            JavaType.FullyQualified base = !anonymous.getInterfaces().isEmpty() ? anonymous.getInterfaces().get(0) : anonymous.getSupertype();
+            String simpleName = base == null ? "Instance" : base.getClassName().substring(base.getClassName().lastIndexOf('.') + 1);
+            return simpleName.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase();
+        }
 
+        private static String uniqueName(String name, J.ClassDeclaration classDecl, List<J.VariableDeclarations> constants) {
+            Set<String> names = Stream.concat(classDecl.getBody().getStatements().stream(), constants.stream())
+                    .filter(statement -> statement instanceof J.VariableDeclarations)
+                    .flatMap(statement -> ((J.VariableDeclarations) statement).getVariables().stream())
+                    .map(J.VariableDeclarations.NamedVariable::getSimpleName)
+                    .collect(Collectors.toSet());
+            String unique = name;
+            for (int i = 2; names.contains(unique); i++) {
+                unique = name + "_" + i;
             }
+            return unique;
+        }
+    }
 
-            JavaType.Variable fieldType = identifier.getFieldType();
-            if (fieldType != null) {
-                // Check if access to instance (also this or super) of non-static field.
-                // Since we are not in a nested FieldAccess, it can only be to our own class.
-                // Thus, no need to check FQN of class.
-                if (fieldType.getOwner() instanceof JavaType.Class) {
-                    if (!fieldType.hasFlags(Flag.Static)) {
-                        instanceAccess.set();
-                    }
-                }
+    // Visitor that replaces the anonymous classes implementing a functional interface with lambdas, or with method
+    // references when they only delegate to a static method. Unlike an anonymous class instance, a lambda that captures
+    // neither the enclosing instance nor local variables is created once by the JVM and then reused.
+    // Like the hoisting, it runs once the main analysis is done, so the bodies may use the methods and inner classes
+    // that become static.
+    @Value
+    @EqualsAndHashCode(callSuper = true)
+    private static class AnonymousClassToLambdaVisitor extends JavaVisitor<ExecutionContext> {
+        Set<JavaType.Method> methodsToBeStatic;
+        Set<String> classesToBeStatic;
+        Set<JavaType.Variable> fieldsToBeStatic;
+        TimeBudget timeBudget;
+        Predicate<Cursor> excluded;
 
-                // Owner can also be a method (it is a parameter).
-                // No need to check it, since it can never be instance access.
+        @Override
+        public J visitNewClass(J.NewClass nc, ExecutionContext executionContext) {
+            J j = super.visitNewClass(nc, executionContext);
+            if (!(j instanceof J.NewClass)) {
+                return j;
             }
+            J.NewClass newClass = (J.NewClass) j;
 
-            return identifier;
+            JavaType.Class anonymous = TypeUtils.asClass(newClass.getType());
+            J.MethodDeclaration method = functionalMethod(newClass, anonymous);
+            if (anonymous == null || method == null || this.excluded.test(getCursor())) {
+                return newClass;
+            }
+
+            JavaType.FullyQualified functionalInterface = anonymous.getInterfaces().get(0);
+            J.MemberReference methodReference = methodReference(method, functionalInterface);
+            if (methodReference != null) {
+                return methodReference.withPrefix(newClass.getPrefix());
+            }
+            return autoFormat(lambda(method, functionalInterface).withPrefix(newClass.getPrefix()), executionContext, getCursor().getParentOrThrow());
         }
 
+        // The single method of an anonymous class that can become a lambda
+        private @Nullable J.MethodDeclaration functionalMethod(J.NewClass newClass, @Nullable JavaType.Class anonymous) {
+            if (newClass.getBody() == null || newClass.getEnclosing() != null || newClass.getClazz() == null || anonymous == null ||
+                    newClass.getArguments().stream().anyMatch(arg -> !(arg instanceof J.Empty))) {
+                return null;
+            }
 
-        @Override
-        public J.MethodInvocation visitMethodInvocation(J.MethodInvocation mi, InstanceAccess instanceAccess) {
-            // Return quickly if we already found an instance access before
-            if (instanceAccess.get()) {
-                return mi;
+            // No state, no other members, and no comments that the lambda would lose
+            List<Statement> statements = newClass.getBody().getStatements();
+            if (statements.size() != 1 || !(statements.get(0) instanceof J.MethodDeclaration) || !newClass.getBody().getEnd().getComments().isEmpty()) {
+                return null;
+            }
+            J.MethodDeclaration method = (J.MethodDeclaration) statements.get(0);
+            if (method.getBody() == null || !method.getPrefix().getComments().isEmpty() ||
+                    method.getTypeParameters() != null && !method.getTypeParameters().isEmpty() ||
+                    method.getLeadingAnnotations().stream().anyMatch(annotation -> !TypeUtils.isOfClassType(annotation.getType(), "java.lang.Override"))) {
+                return null;
             }
 
-            J.MethodInvocation methodInvocation = super.visitMethodInvocation(mi, instanceAccess);
+            // Without the type of the interface, nothing can be told about it
+            if (anonymous.getInterfaces().size() != 1 || hasUnresolvedSuperclass(getCursor())) {
+                return null;
+            }
+            JavaType.FullyQualified functionalInterface = anonymous.getInterfaces().get(0);
+            JavaType.Method abstractMethod = abstractMethod(functionalInterface);
+            if (abstractMethod == null || !abstractMethod.getName().equals(method.getSimpleName()) || !isTargetType(functionalInterface)) {
+                return null;
+            }
 
-            // Discard if the target of the invocation is not implicit this.
-            // We are taking care of explicit this in visitIdentifier
-            // We do not care about method invocation on other objects
-            if (methodInvocation.getSelect() != null) {
-                return methodInvocation;
+            if (usesOwnInstance(method, anonymous) || declaresVariablesInScope(method, newClass)) {
+                return null;
             }
 
-            JavaType.Method methodType = methodInvocation.getMethodType();
-            if (methodType != null) {
-                // Check if it is a method call to non-static member
-                if (!methodType.hasFlags(Flag.Static)) {
-                    // If it's access to a potential to become static method, we add it to the list of method invocations
-                    if (methodType.hasFlags(Flag.Private) || methodType.hasFlags(Flag.Final)) {
-                        instanceAccess.addMethodInvocation(methodType);
-                    } else { // Otherwise we just set instance access
-                        instanceAccess.set();
+            // Looking for access to the enclosing instance or captured locals, as we do for the hoisting
+            InstanceAccess enclosingAccess = AccessInstanceDataVisitor.find(method.getBody(), this.fieldsToBeStatic, this.timeBudget, anonymous, false);
+            return !enclosingAccess.get() && enclosingAccess.dependsOnlyOn(this.methodsToBeStatic, this.classesToBeStatic) ? method : null;
+        }
+
+        // The single abstract method of a functional interface. The public methods of `Object` do not count, nor the
+        // abstract methods that a subinterface implements with a default method.
+        private static @Nullable JavaType.Method abstractMethod(JavaType.FullyQualified type) {
+            if (type.getKind() != JavaType.FullyQualified.Kind.Interface) {
+                return null;
+            }
+            Map<String, JavaType.Method> abstractMethods = new HashMap<>();
+            Set<String> implementedMethods = new HashSet<>(Set.of("equals/1", "hashCode/0", "toString/0"));
+            Deque<JavaType.FullyQualified> interfaces = new ArrayDeque<>(List.of(type));
+            while (!interfaces.isEmpty()) {
+                JavaType.FullyQualified i = interfaces.poll();
+                for (JavaType.Method m : i.getMethods()) {
+                    String key = m.getName() + "/" + m.getParameterTypes().size();
+                    if (m.hasFlags(Flag.Default)) {
+                        implementedMethods.add(key);
+                    } else if (!m.hasFlags(Flag.Static) && !m.hasFlags(Flag.Private) && !implementedMethods.contains(key)) {
+                        abstractMethods.putIfAbsent(key, m);
                     }
+                }
+                interfaces.addAll(i.getInterfaces());
+            }
+            abstractMethods.keySet().removeAll(implementedMethods);
+            return abstractMethods.size() == 1 ? abstractMethods.values().iterator().next() : null;
+        }
 
+        // Unlike an anonymous class, a lambda needs its functional interface as target type. We only take the
+        // contexts where the target type is plainly the type of the anonymous class.
+        private boolean isTargetType(JavaType.FullyQualified functionalInterface) {
+            Cursor parent = getCursor().getParentTreeCursor();
+            Object value = parent.getValue();
+            JavaType target = null;
+            if (value instanceof J.VariableDeclarations.NamedVariable) {
+                // `var` takes the type of the anonymous class
+                target = ((J.VariableDeclarations.NamedVariable) value).getType();
+            } else if (value instanceof J.Assignment) {
+                target = ((J.Assignment) value).getVariable().getType();
+            } else if (value instanceof J.Return) {
+                Object enclosing = parent.dropParentUntil(v -> v instanceof J.MethodDeclaration || v instanceof J.Lambda || v instanceof J.ClassDeclaration).getValue();
+                if (enclosing instanceof J.MethodDeclaration && ((J.MethodDeclaration) enclosing).getMethodType() != null) {
+                    target = ((J.MethodDeclaration) enclosing).getMethodType().getReturnType();
+                }
+            } else if (value instanceof MethodCall) {
+                // An overload taking another functional interface could make the lambda ambiguous
+                MethodCall call = (MethodCall) value;
+                JavaType.Method methodType = call.getMethodType();
+                int index = call.getArguments().indexOf(getCursor().<J>getValue());
+                if (methodType != null && !methodType.hasFlags(Flag.Varargs) && index >= 0 && index < methodType.getParameterTypes().size() &&
+                        !isOverloaded(methodType)) {
+                    target = methodType.getParameterTypes().get(index);
                 }
             }
 
-            return methodInvocation;
+            // Raw targets would not accept the parameter types of a parameterized interface
+            return TypeUtils.isOfClassType(target, functionalInterface.getFullyQualifiedName()) &&
+                    (target instanceof JavaType.Parameterized || !(functionalInterface instanceof JavaType.Parameterized));
         }
 
-        @Override
-        public J.NewClass visitNewClass(J.NewClass nc, InstanceAccess instanceAccess) {
-            // Return quickly if we already found an instance access before
-            if (instanceAccess.get()) {
-                return nc;
+        private static boolean isOverloaded(JavaType.Method methodType) {
+            Set<List<JavaType>> signatures = new HashSet<>();
+            Deque<JavaType.FullyQualified> types = new ArrayDeque<>(List.of(methodType.getDeclaringType()));
+            while (!types.isEmpty()) {
+                JavaType.FullyQualified type = types.poll();
+                type.getMethods().stream()
+                        .filter(m -> m.getName().equals(methodType.getName()) && m.getParameterTypes().size() == methodType.getParameterTypes().size())
+                        .forEach(m -> signatures.add(m.getParameterTypes()));
+                if (type.getSupertype() != null) {
+                    types.add(type.getSupertype());
+                }
+                types.addAll(type.getInterfaces());
+            }
+            return signatures.size() > 1;
+        }
+
+        // In a lambda, `this` is the enclosing instance, and the members inherited from the interface are not in scope.
+        private static boolean usesOwnInstance(J.MethodDeclaration method, JavaType.FullyQualified anonymous) {
+            return new JavaIsoVisitor<AtomicBoolean>() {
+                @Override
+                public J.Identifier visitIdentifier(J.Identifier identifier, AtomicBoolean uses) {
+                    if (identifier.getSimpleName().equals("this") || identifier.getSimpleName().equals("super") ||
+                            identifier.getFieldType() != null && isInherited(identifier.getFieldType().getOwner())) {
+                        uses.set(true);
+                    }
+                    return identifier;
+                }
+
+                @Override
+                public J.MethodInvocation visitMethodInvocation(J.MethodInvocation methodInvocation, AtomicBoolean uses) {
+                    if (methodInvocation.getSelect() == null &&
+                            (methodInvocation.getMethodType() == null || isInherited(methodInvocation.getMethodType().getDeclaringType()))) {
+                        uses.set(true);
+                    }
+                    return super.visitMethodInvocation(methodInvocation, uses);
+                }
+
+                private boolean isInherited(@Nullable JavaType owner) {
+                    return owner instanceof JavaType.FullyQualified && TypeUtils.isAssignableTo(((JavaType.FullyQualified) owner).getFullyQualifiedName(), anonymous);
+                }
+            }.reduce(method, new AtomicBoolean()).get();
+        }
+
+        // A method of an anonymous class may declare parameters and variables named as the local variables in scope,
+        // a lambda may not. The variables of the whole enclosing member are taken as in scope.
+        private boolean declaresVariablesInScope(J.MethodDeclaration method, J.NewClass newClass) {
+            J member = null;
+            for (Cursor c = getCursor().getParentTreeCursor(); !(c.getValue() instanceof SourceFile); c = c.getParentTreeCursor()) {
+                Object value = c.getValue();
+                if (value instanceof J.ClassDeclaration || value instanceof J.NewClass && ((J.NewClass) value).getBody() != null) {
+                    break;
+                } else if (!(value instanceof J.Block && c.getParentTreeCursor().getValue() instanceof J.ClassDeclaration)) {
+                    member = (J) value;
+                }
             }
+            Set<String> declared = variableNames(method, newClass);
+            return member != null && variableNames(member, newClass).stream().anyMatch(declared::contains);
+        }
 
-            J.NewClass newClass = super.visitNewClass(nc, instanceAccess);
+        private static Set<String> variableNames(J tree, J.NewClass excluded) {
+            return new JavaIsoVisitor<Set<String>>() {
+                @Override
+                public J.NewClass visitNewClass(J.NewClass newClass, Set<String> names) {
+                    return newClass.getId().equals(excluded.getId()) ? newClass : super.visitNewClass(newClass, names);
+                }
 
-            // Discard if we have an enclosing
-            // We are taking care of explicit this in visitIdentifier
-            // We do not care about instantiation on other objects
-            if (newClass.getEnclosing() != null) {
-                return newClass;
+                @Override
+                public J.VariableDeclarations.NamedVariable visitVariable(J.VariableDeclarations.NamedVariable variable, Set<String> names) {
+                    names.add(variable.getSimpleName());
+                    return super.visitVariable(variable, names);
+                }
+            }.reduce(tree, new HashSet<>());
+        }
+
+        // `new Comparator<String>() { int compare(String a, String b) { return Strings.compare(a, b); } }` becomes
+        // `Strings::compare`
+        private static @Nullable J.MemberReference methodReference(J.MethodDeclaration method, JavaType.FullyQualified functionalInterface) {
+            List<Statement> statements = method.getBody().getStatements();
+            if (statements.size() != 1) {
+                return null;
+            }
+            Statement statement = statements.get(0);
+            J.MethodInvocation invocation = statement instanceof J.Return && ((J.Return) statement).getExpression() instanceof J.MethodInvocation ?
+                    (J.MethodInvocation) ((J.Return) statement).getExpression() :
+                    statement instanceof J.MethodInvocation ? (J.MethodInvocation) statement : null;
+            if (invocation == null || !statement.getComments().isEmpty() || !method.getBody().getEnd().getComments().isEmpty() ||
+                    invocation.getTypeParameters() != null || !isTypeName(invocation.getSelect())) {
+                return null;
+            }
+
+            // A static method, that is not overloaded, invoked with the parameters in the same order
+            JavaType.Method methodType = invocation.getMethodType();
+            if (methodType == null || !methodType.hasFlags(Flag.Static) || methodType.hasFlags(Flag.Varargs) ||
+                    methodType.getDeclaringType().getMethods().stream().filter(m -> m.getName().equals(methodType.getName())).count() != 1) {
+                return null;
+            }
+            List<String> parameters = method.getParameters().stream()
+                    .filter(p -> p instanceof J.VariableDeclarations)
+                    .map(p -> ((J.VariableDeclarations) p).getVariables().get(0).getSimpleName())
+                    .collect(Collectors.toList());
+            List<String> arguments = invocation.getArguments().stream()
+                    .filter(arg -> !(arg instanceof J.Empty))
+                    .map(arg -> arg instanceof J.Identifier ? ((J.Identifier) arg).getSimpleName() : "")
+                    .collect(Collectors.toList());
+            if (!parameters.equals(arguments)) {
+                return null;
+            }
+
+            return new J.MemberReference(
+                    Tree.randomId(),
+                    Space.EMPTY,
+                    Markers.EMPTY,
+                    JRightPadded.build(invocation.getSelect().withPrefix(Space.EMPTY)),
+                    null,
+                    JLeftPadded.build(invocation.getName().withPrefix(Space.EMPTY)),
+                    functionalInterface,
+                    methodType,
+                    null);
+        }
+
+        private static boolean isTypeName(@Nullable Expression select) {
+            if (select instanceof J.Identifier) {
+                return ((J.Identifier) select).getFieldType() == null && TypeUtils.asFullyQualified(select.getType()) != null;
+            } else if (select instanceof J.FieldAccess) {
+                return ((J.FieldAccess) select).getName().getFieldType() == null && TypeUtils.asFullyQualified(select.getType()) != null;
             }
+            return false;
+        }
 
-            // Check if class reference to non-static nested class.
-            // No need to check owning class, since we already discarded NewClass with enclosing.
-            // We can only be referring to a nested class of our own class.
-            JavaType.Class clazz = (JavaType.Class) newClass.getType();
-            if (clazz != null && clazz.getOwningClass() != null) {
-                if (!clazz.hasFlags(Flag.Static)) {
-                    instanceAccess.set();
+        // Parameters keep their declared types, so the lambda has the exact same signature as the method.
+        // `return e;` alone becomes an expression body.
+        private static J.Lambda lambda(J.MethodDeclaration method, JavaType.FullyQualified functionalInterface) {
+            List<JRightPadded<J>> parameters = method.getPadding().getParameters().getPadding().getElements().stream()
+                    .map(parameter -> new JRightPadded<J>(parameter.getElement(), parameter.getAfter(), parameter.getMarkers()))
+                    .collect(Collectors.toList());
+            J.Block block = method.getBody();
+            J body = block.withPrefix(Space.format(" "));
+            if (block.getStatements().size() == 1 && block.getStatements().get(0) instanceof J.Return && block.getEnd().getComments().isEmpty()) {
+                J.Return ret = (J.Return) block.getStatements().get(0);
+                if (ret.getExpression() != null && ret.getComments().isEmpty()) {
+                    body = ret.getExpression().withPrefix(Space.format(" "));
                 }
             }
+            return new J.Lambda(
+                    Tree.randomId(),
+                    Space.EMPTY,
+                    Markers.EMPTY,
+                    new J.Lambda.Parameters(Tree.randomId(), Space.EMPTY, Markers.EMPTY, true, parameters),
+                    Space.format(" "),
+                    body,
+                    functionalInterface);
+        }
+    }
 
-            return newClass;
+    // Visitor that counts the LST nodes of a tree. It stops descending as soon as the limit is exceeded,
+    // so checking a huge method costs at most `limit` visits, much less than analyzing it.
+    // Huge methods are mostly generated code with long chains, which are walked in a loop as in the analysis. The links
+    // of a chain are not passed to visit(), so they are counted when entering the chain.
+    @Value
+    @EqualsAndHashCode(callSuper = true)
+    private static class NodeCountVisitor extends ChainVisitor<AtomicInteger> {
+        int limit;
+
+        static boolean exceeds(J tree, int limit) {
+            return new NodeCountVisitor(limit).reduce(tree, new AtomicInteger()).get() > limit;
         }
 
         @Override
-        public J.MemberReference visitMemberReference(J.MemberReference mr, InstanceAccess instanceAccess) {
-            if (instanceAccess.get()) {
-                return mr;
-            }
-            J.MemberReference memberRef = super.visitMemberReference(mr, instanceAccess);
-
-            if (memberRef.getContaining() instanceof J.Identifier) {
-                J.Identifier id = (J.Identifier) memberRef.getContaining();
-                // On member references, we just care about the specific case where we are accessing through `this::`
-                // Any other member reference is either with static context or to a local parameter or variable.
-                if (id.getSimpleName().equals("this")) {
-                    instanceAccess.set();
-                }
-                // For the special case of `new`, we need to check as in visitNewClass if it's a static nested class
-                else if (memberRef.getReference().getSimpleName().equals("new")) {
-                    JavaType.Class clazz = (JavaType.Class) id.getType();
-                    if (clazz != null && clazz.getOwningClass() != null) {
-                        if (!clazz.hasFlags(Flag.Static)) {
-                            instanceAccess.set();
-                        }
-                    }
-                }
+        public @Nullable J visit(@Nullable Tree tree, AtomicInteger count) {
+            if (tree == null || count.get() > limit) {
+                return (J) tree;
             }
+            count.incrementAndGet();
+            return super.visit(tree, count);
+        }
+
+        @Override
+        public J.Binary visitBinary(J.Binary binary, AtomicInteger count) {
+            for (Expression left = binary.getLeft(); left instanceof J.Binary; left = ((J.Binary) left).getLeft()) {
+                count.incrementAndGet();
+            }
+            return count.get() > limit ? binary : super.visitBinary(binary, count);
+        }
 
-            return memberRef;
+        @Override
+        public J.Ternary visitTernary(J.Ternary ternary, AtomicInteger count) {
+            for (Expression falsePart = ternary.getFalsePart(); falsePart instanceof J.Ternary; falsePart = ((J.Ternary) falsePart).getFalsePart()) {
+                count.incrementAndGet();
+            }
+            return count.get() > limit ? ternary : super.visitTernary(ternary, count);
+        }
+
+        @Override
+        public J.MethodInvocation visitMethodInvocation(J.MethodInvocation method, AtomicInteger count) {
+            for (Expression select = method.getSelect(); select instanceof J.MethodInvocation; select = ((J.MethodInvocation) select).getSelect()) {
+                count.incrementAndGet();
+            }
+            return count.get() > limit ? method : super.visitMethodInvocation(method, count);
         }
     }
 
@@ -0,0 +1,30 @@
+package io.moderne.recipes;
+
+import java.util.concurrent.TimeUnit;
+
+// Cooperative time budget for the analysis of a single source file.
+// Reading the clock is cheap but not free, so it's only checked every few calls. Once exhausted, it stays exhausted.
+class TimeBudget {
+    static final TimeBudget UNLIMITED = new TimeBudget(-1);
+    private static final int CHECK_INTERVAL_MASK = 0xFF;
+
+    private final long start = System.nanoTime();
+    private final long budgetNanos;
+    private int calls = 0;
+    private boolean exhausted = false;
+
+    TimeBudget(long budgetMillis) {
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    boolean isExhausted() {
+        if (!this.exhausted && this.budgetNanos >= 0 && (this.calls++ & CHECK_INTERVAL_MASK) == 0) {
+            this.exhausted = System.nanoTime() - this.start >= this.budgetNanos;
+        }
+        return this.exhausted;
+    }
+
+    long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.start);
+    }
+}
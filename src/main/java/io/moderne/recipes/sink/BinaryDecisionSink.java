@@ -0,0 +1,79 @@
+package io.moderne.recipes.sink;
+
+import org.openrewrite.internal.lang.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+// Each record is its length in bytes, as a 4 bytes int, followed by the record itself:
+// repository, source path, class name and method signature as modified UTF-8 strings, the ordinal of the decision as
+// a byte, whether there is a blocking invocation and the invocation itself, then the execution samples as a long.
+// Readers skip whatever a record has after the fields they know, so fields can be added at the end later on.
+// Files from several runs can be merged by just concatenating them.
+public class BinaryDecisionSink implements DecisionSink {
+    private final DataOutputStream out;
+
+    public BinaryDecisionSink(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    @Override
+    public synchronized void accept(MethodDecision decision) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream record = new DataOutputStream(bytes);
+            record.writeUTF(decision.getRepository());
+            record.writeUTF(decision.getSourcePath());
+            record.writeUTF(decision.getClassName());
+            record.writeUTF(decision.getMethodSignature());
+            record.writeByte(decision.getDecision().ordinal());
+            record.writeBoolean(decision.getBlockedBy() != null);
+            if (decision.getBlockedBy() != null) {
+                record.writeUTF(decision.getBlockedBy());
+            }
+            record.writeLong(decision.getExecutionSamples());
+
+            this.out.writeInt(bytes.size());
+            bytes.writeTo(this.out);
+            this.out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.out.close();
+    }
+
+    // Reads the next record, or returns null at the end of the stream.
+    public static @Nullable MethodDecision read(InputStream in) throws IOException {
+        DataInputStream data = in instanceof DataInputStream ? (DataInputStream) in : new DataInputStream(in);
+        int length;
+        try {
+            length = data.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        data.readFully(bytes);
+
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+        String repository = record.readUTF();
+        String sourcePath = record.readUTF();
+        String className = record.readUTF();
+        String methodSignature = record.readUTF();
+        MethodDecision.Decision decision = MethodDecision.Decision.values()[record.readByte()];
+        String blockedBy = record.readBoolean() ? record.readUTF() : null;
+        // Records written before the execution samples were added end here
+        long executionSamples = record.available() >= Long.BYTES ? record.readLong() : 0;
+        return new MethodDecision(repository, sourcePath, className, methodSignature, decision, blockedBy, executionSamples);
+    }
+}
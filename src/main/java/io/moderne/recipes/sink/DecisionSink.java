@@ -0,0 +1,23 @@
+package io.moderne.recipes.sink;
+
+import org.openrewrite.ExecutionContext;
+import org.openrewrite.internal.lang.Nullable;
+
+import java.io.Closeable;
+
+// Receives the decisions of the recipe as soon as a source file is done, so the host can write them out as the run
+// goes instead of keeping them in memory, as data tables do.
+// The host registers the sink in the execution context before the run, and closes it once the run is over.
+// The decisions of a source file are sent once per run, from its first cycle.
+public interface DecisionSink extends Closeable {
+
+    void accept(MethodDecision decision);
+
+    static void register(ExecutionContext executionContext, DecisionSink sink) {
+        executionContext.putMessage(DecisionSink.class.getName(), sink);
+    }
+
+    static @Nullable DecisionSink get(ExecutionContext executionContext) {
+        return executionContext.getMessage(DecisionSink.class.getName());
+    }
+}
@@ -0,0 +1,29 @@
+package io.moderne.recipes.sink;
+
+import io.moderne.recipes.table.PerformanceImpact;
+import lombok.Value;
+import org.openrewrite.SourceFile;
+
+import java.util.List;
+
+// The outcome of the recipe on a single source file.
+@Value
+public class FileResult {
+    SourceFile before;
+
+    // The same as before when the recipe made no change
+    SourceFile after;
+
+    // Empty when the recipe made no change
+    String diff;
+
+    // Decisions on the methods of the file, both the ones made static and the others
+    List<MethodDecision> decisions;
+
+    // Effect of the changes, per class of the file
+    List<PerformanceImpact.Row> performanceImpact;
+
+    public boolean isChanged() {
+        return this.before != this.after;
+    }
+}
@@ -0,0 +1,157 @@
+package io.moderne.recipes.sink;
+
+import io.moderne.recipes.table.PerformanceImpact;
+import org.openrewrite.DataTable;
+import org.openrewrite.ExecutionContext;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.Recipe;
+import org.openrewrite.RecipeRun;
+import org.openrewrite.Result;
+import org.openrewrite.SourceFile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+// Runs a recipe over the source files one by one, and publishes the result of each file as soon as it is done.
+// Every analysis and change of the recipe is local to a source file, so running it file by file gives the same
+// results as a single run over all of them.
+// Files are only processed as the subscriber requests results, on the given executor, so a slow subscriber never has
+// more than the results it asked for waiting in memory. Each subscriber gets its own run over all the files.
+public class FileResultPublisher implements Flow.Publisher<FileResult> {
+    private final Recipe recipe;
+    private final List<? extends SourceFile> sourceFiles;
+    private final Executor executor;
+    private final Consumer<Throwable> onError;
+
+    public FileResultPublisher(Recipe recipe, List<? extends SourceFile> sourceFiles, Executor executor, Consumer<Throwable> onError) {
+        this.recipe = recipe;
+        this.sourceFiles = sourceFiles;
+        this.executor = executor;
+        this.onError = onError;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super FileResult> subscriber) {
+        subscriber.onSubscribe(new FileResultSubscription(subscriber, this.sourceFiles.iterator()));
+    }
+
+    private FileResult run(SourceFile sourceFile) {
+        List<MethodDecision> decisions = new ArrayList<>();
+        ExecutionContext executionContext = new InMemoryExecutionContext(this.onError);
+        DecisionSink.register(executionContext, new DecisionSink() {
+            @Override
+            public void accept(MethodDecision decision) {
+                decisions.add(decision);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        RecipeRun run = this.recipe.run(Collections.singletonList(sourceFile), executionContext);
+
+        List<PerformanceImpact.Row> performanceImpact = new ArrayList<>();
+        for (Map.Entry<DataTable<?>, List<?>> dataTable : run.getDataTables().entrySet()) {
+            if (dataTable.getKey() instanceof PerformanceImpact) {
+                dataTable.getValue().forEach(row -> performanceImpact.add((PerformanceImpact.Row) row));
+            }
+        }
+
+        Result result = run.getResults().isEmpty() ? null : run.getResults().get(0);
+        return result == null || result.getAfter() == null ?
+                new FileResult(sourceFile, sourceFile, "", decisions, performanceImpact) :
+                new FileResult(sourceFile, result.getAfter(), result.diff(), decisions, performanceImpact);
+    }
+
+    private class FileResultSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super FileResult> subscriber;
+        private final Iterator<? extends SourceFile> remaining;
+        private final AtomicLong demand = new AtomicLong();
+        // Number of pending calls to drain, only the first one runs the loop
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean done = new AtomicBoolean();
+        // Signalled by the drain loop, so that it is never sent while the subscriber is still in onNext
+        private final AtomicReference<Throwable> invalidRequest = new AtomicReference<>();
+
+        FileResultSubscription(Flow.Subscriber<? super FileResult> subscriber, Iterator<? extends SourceFile> remaining) {
+            this.subscriber = subscriber;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                this.invalidRequest.compareAndSet(null, new IllegalArgumentException("The number of requested results must be positive, was " + n));
+            } else {
+                // Unbounded demand past Long.MAX_VALUE
+                this.demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+            }
+            if (this.pending.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            this.done.set(true);
+        }
+
+        private void drain() {
+            int missed;
+            do {
+                try {
+                    emit();
+                } finally {
+                    missed = this.pending.decrementAndGet();
+                }
+            } while (missed > 0);
+        }
+
+        private void emit() {
+            Throwable invalidRequest = this.invalidRequest.get();
+            if (invalidRequest != null) {
+                if (this.done.compareAndSet(false, true)) {
+                    this.subscriber.onError(invalidRequest);
+                }
+                return;
+            }
+            while (!this.done.get() && this.demand.get() > 0 && this.remaining.hasNext()) {
+                FileResult result;
+                try {
+                    result = run(this.remaining.next());
+                } catch (Throwable t) {
+                    if (this.done.compareAndSet(false, true)) {
+                        this.subscriber.onError(t);
+                    }
+                    return;
+                }
+                // Cancelled while the file was running
+                if (this.done.get()) {
+                    return;
+                }
+                this.demand.decrementAndGet();
+                try {
+                    this.subscriber.onNext(result);
+                } catch (Throwable t) {
+                    // A subscriber that throws is considered to have cancelled its subscription
+                    this.done.set(true);
+                    throw t;
+                }
+            }
+            if (!this.remaining.hasNext() && this.done.compareAndSet(false, true)) {
+                this.subscriber.onComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package io.moderne.recipes.sink;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+// One JSON object per line. Null fields are left out.
+// Lines are flushed one by one, so a run that is killed halfway still leaves complete lines behind.
+public class JsonLinesDecisionSink implements DecisionSink {
+    private final Writer writer;
+    private final JsonGenerator generator;
+
+    public JsonLinesDecisionSink(OutputStream out) {
+        this.writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        try {
+            this.generator = new JsonFactory().createGenerator(this.writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // Each record is a root value of its own, separated from the next one by a new line
+        this.generator.setRootValueSeparator(null);
+    }
+
+    @Override
+    public synchronized void accept(MethodDecision decision) {
+        try {
+            this.generator.writeStartObject();
+            this.generator.writeStringField("repository", decision.getRepository());
+            this.generator.writeStringField("sourcePath", decision.getSourcePath());
+            this.generator.writeStringField("className", decision.getClassName());
+            this.generator.writeStringField("methodSignature", decision.getMethodSignature());
+            this.generator.writeStringField("decision", decision.getDecision().name());
+            if (decision.getBlockedBy() != null) {
+                this.generator.writeStringField("blockedBy", decision.getBlockedBy());
+            }
+            this.generator.writeNumberField("executionSamples", decision.getExecutionSamples());
+            this.generator.writeEndObject();
+            this.generator.flush();
+            this.writer.write('\n');
+            this.writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.generator.close();
+    }
+}
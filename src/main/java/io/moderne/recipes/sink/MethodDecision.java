@@ -0,0 +1,37 @@
+package io.moderne.recipes.sink;
+
+import lombok.Value;
+import org.openrewrite.internal.lang.Nullable;
+
+// What the recipe decided for one of the non-overridable methods it analyzed.
+@Value
+public class MethodDecision {
+    public enum Decision {
+        // The method is made static
+        STATIC,
+        // The body uses the instance itself
+        INSTANCE_ACCESS,
+        // The body only invokes methods or instantiates inner classes of the instance, and one of them stays non-static
+        BLOCKED,
+        // The method could be static, but has less execution samples than the minimum
+        COLD
+    }
+
+    // The origin of the repository, or the name of the project when it is unknown
+    String repository;
+
+    String sourcePath;
+
+    String className;
+
+    String methodSignature;
+
+    Decision decision;
+
+    // The method invoked, or the inner class instantiated, that kept a blocked method from becoming static
+    @Nullable
+    String blockedBy;
+
+    // Execution samples of the method in the execution profile, 0 without one
+    long executionSamples;
+}
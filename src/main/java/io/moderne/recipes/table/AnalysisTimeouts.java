@@ -0,0 +1,26 @@
+package io.moderne.recipes.table;
+
+import lombok.Value;
+import org.openrewrite.Column;
+import org.openrewrite.DataTable;
+import org.openrewrite.Recipe;
+
+public class AnalysisTimeouts extends DataTable<AnalysisTimeouts.Row> {
+
+    public AnalysisTimeouts(Recipe recipe) {
+        super(recipe,
+                "Analysis timeouts",
+                "Source files whose analysis exceeded the time budget per file, and were left unchanged.");
+    }
+
+    @Value
+    public static class Row {
+        @Column(displayName = "Source path",
+                description = "The path of the source file that exceeded the time budget.")
+        String sourcePath;
+
+        @Column(displayName = "Elapsed time (ms)",
+                description = "The time spent on the source file until its analysis was aborted.")
+        long elapsedMillis;
+    }
+}
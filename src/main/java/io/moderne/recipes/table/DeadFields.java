@@ -0,0 +1,41 @@
+package io.moderne.recipes.table;
+
+import lombok.Value;
+import org.openrewrite.Column;
+import org.openrewrite.DataTable;
+import org.openrewrite.Recipe;
+
+public class DeadFields extends DataTable<DeadFields.Row> {
+
+    public static final String UNUSED = "Unused";
+    public static final String WRITE_ONLY = "Write-only";
+
+    public DeadFields(Recipe recipe) {
+        super(recipe,
+                "Dead fields",
+                "Private instance fields that are never read, and still take up space in every instance.");
+    }
+
+    @Value
+    public static class Row {
+        @Column(displayName = "Source path",
+                description = "The path of the source file containing the field.")
+        String sourcePath;
+
+        @Column(displayName = "Class",
+                description = "The fully qualified name of the class declaring the field.")
+        String className;
+
+        @Column(displayName = "Field",
+                description = "The name of the field.")
+        String fieldName;
+
+        @Column(displayName = "Usage",
+                description = "Whether the field is never referenced, or only written.")
+        String usage;
+
+        @Column(displayName = "Removed",
+                description = "Whether the recipe removed the field.")
+        boolean removed;
+    }
+}
@@ -0,0 +1,34 @@
+package io.moderne.recipes.table;
+
+import lombok.Value;
+import org.openrewrite.Column;
+import org.openrewrite.DataTable;
+import org.openrewrite.Recipe;
+
+public class InnerClassesMadeStatic extends DataTable<InnerClassesMadeStatic.Row> {
+
+    // Size of the hidden reference to the enclosing instance (`this$0`), assuming compressed oops,
+    // which is the default for heaps under 32 GB.
+    public static final int OUTER_REFERENCE_BYTES = 4;
+
+    public InnerClassesMadeStatic(Recipe recipe) {
+        super(recipe,
+                "Inner classes made static",
+                "Inner classes that never used the enclosing instance and became static nested classes.");
+    }
+
+    @Value
+    public static class Row {
+        @Column(displayName = "Source path",
+                description = "The path of the source file containing the class.")
+        String sourcePath;
+
+        @Column(displayName = "Class",
+                description = "The fully qualified name of the class that became static.")
+        String className;
+
+        @Column(displayName = "Bytes saved per instance",
+                description = "Estimated memory saved on each instance by dropping the reference to the enclosing instance.")
+        int bytesSavedPerInstance;
+    }
+}
@@ -0,0 +1,55 @@
+package io.moderne.recipes.table;
+
+import lombok.Value;
+import org.openrewrite.Column;
+import org.openrewrite.DataTable;
+import org.openrewrite.Recipe;
+
+public class PerformanceImpact extends DataTable<PerformanceImpact.Row> {
+
+    public PerformanceImpact(Recipe recipe) {
+        super(recipe,
+                "Performance impact",
+                "Estimated runtime effect of the changes, per class. Summing the rows by module gives the effect per module.");
+    }
+
+    @Value
+    public static class Row {
+        @Column(displayName = "Module",
+                description = "The name of the project the source file belongs to, if known.")
+        String module;
+
+        @Column(displayName = "Source path",
+                description = "The path of the source file containing the class.")
+        String sourcePath;
+
+        @Column(displayName = "Class",
+                description = "The fully qualified name of the class.")
+        String className;
+
+        @Column(displayName = "Static call sites",
+                description = "Method invocations that move from instance dispatch to `invokestatic`.")
+        int staticCallSites;
+
+        @Column(displayName = "Non-capturing method references",
+                description = "`this::m` method references that no longer capture `this`.")
+        int nonCapturingMethodReferences;
+
+        @Column(displayName = "Classes without outer reference",
+                description = "Inner classes whose instances no longer hold a reference to the enclosing instance.")
+        int classesWithoutOuterReference;
+
+        @Column(displayName = "Receiver evaluations removed",
+                description = "Invocations that no longer load `this` as their receiver.")
+        int receiverEvaluationsRemoved;
+
+        @Column(displayName = "Allocations removed",
+                description = "`new Helper().m()` invocations of utility classes that no longer allocate an instance only to throw it away.")
+        int allocationsRemoved;
+
+        @Column(displayName = "Execution samples",
+                description = "Execution samples of the methods made static in the execution profile, if any. " +
+                        "Sorting the rows by it puts first the classes where the changes matter the most in production.")
+        long executionSamples;
+    }
+}
@@ -0,0 +1,35 @@
+package io.moderne.recipes.table;
+
+import lombok.Value;
+import org.openrewrite.Column;
+import org.openrewrite.DataTable;
+import org.openrewrite.Recipe;
+
+public class SkippedAnalysis extends DataTable<SkippedAnalysis.Row> {
+
+    public static final String EXCLUDED_SOURCE_PATH = "Excluded source path";
+    public static final String EXCLUDED_ANNOTATION = "Excluded annotation";
+    public static final String TOO_MANY_METHODS = "Too many methods";
+    public static final String METHOD_BODY_TOO_LARGE = "Method body too large";
+
+    public SkippedAnalysis(Recipe recipe) {
+        super(recipe,
+                "Skipped analysis",
+                "Source files, classes and methods that were not analyzed because of the recipe filters.");
+    }
+
+    @Value
+    public static class Row {
+        @Column(displayName = "Source path",
+                description = "The path of the source file containing the skipped element.")
+        String sourcePath;
+
+        @Column(displayName = "Element",
+                description = "The skipped source file, class or method.")
+        String element;
+
+        @Column(displayName = "Reason",
+                description = "The filter that caused the element to be skipped.")
+        String reason;
+    }
+}
@@ -0,0 +1,31 @@
+package io.moderne.recipes.table;
+
+import lombok.Value;
+import org.openrewrite.Column;
+import org.openrewrite.DataTable;
+import org.openrewrite.Recipe;
+
+public class UtilityClasses extends DataTable<UtilityClasses.Row> {
+
+    public UtilityClasses(Recipe recipe) {
+        super(recipe,
+                "Utility classes",
+                "Classes whose methods are all static and that are neither instantiated nor extended in their source file. " +
+                        "Unless other files do, they could get a private constructor.");
+    }
+
+    @Value
+    public static class Row {
+        @Column(displayName = "Source path",
+                description = "The path of the source file containing the class.")
+        String sourcePath;
+
+        @Column(displayName = "Class",
+                description = "The fully qualified name of the class whose methods are all static.")
+        String className;
+
+        @Column(displayName = "Instantiations removed",
+                description = "Number of invocations like `new Helper().compute(x)` rewritten to `Helper.compute(x)` in the file.")
+        int instantiationsRemoved;
+    }
+}
@@ -1,10 +1,51 @@
 package io.moderne.recipes;
 
+import io.moderne.recipes.sink.BinaryDecisionSink;
+import io.moderne.recipes.sink.DecisionSink;
+import io.moderne.recipes.sink.FileResult;
+import io.moderne.recipes.sink.FileResultPublisher;
+import io.moderne.recipes.sink.JsonLinesDecisionSink;
+import io.moderne.recipes.sink.MethodDecision;
+import io.moderne.recipes.table.AnalysisTimeouts;
+import io.moderne.recipes.table.DeadFields;
+import io.moderne.recipes.table.InnerClassesMadeStatic;
+import io.moderne.recipes.table.PerformanceImpact;
+import io.moderne.recipes.table.SkippedAnalysis;
+import io.moderne.recipes.table.UtilityClasses;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openrewrite.ExecutionContext;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.java.JavaParser;
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JavaType;
+import org.openrewrite.java.tree.Space;
 import org.openrewrite.test.RecipeSpec;
 import org.openrewrite.test.RewriteTest;
+import org.openrewrite.test.TypeValidation;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Flow;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.openrewrite.java.Assertions.java;
 
 public class NonOverridableMethodsNoInstanceDataToStaticRecipeTest implements RewriteTest {
@@ -764,7 +805,7 @@ public class NonOverridableMethodsNoInstanceDataToStaticRecipeTest implements Re
                         }
                         """, """
                         class A {
-                            void method() {}
+                            void method() {};
                                             
                             private static void test(A a) {
                                 a.method();
@@ -1368,5 +1409,2839 @@ public class NonOverridableMethodsNoInstanceDataToStaticRecipeTest implements Re
             }
         }
     }
-}
 
+    @Nested
+    class Filters {
+        @Test
+        void excludedSourcePath() {
+            rewriteRun(spec -> spec
+                            .recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withExcludedSourcePaths(List.of("target/generated-sources/**")))
+                            .cycles(1).expectedCyclesThatMakeChanges(1)
+                            .dataTable(SkippedAnalysis.Row.class, rows -> assertThat(rows)
+                                    .containsExactly(new SkippedAnalysis.Row("target/generated-sources/A.java", "target/generated-sources/A.java", SkippedAnalysis.EXCLUDED_SOURCE_PATH))),
+                    java("""
+                            class A {
+                                private int test() {
+                                    return 0;
+                                }
+                            }
+                            """, spec -> spec.path("target/generated-sources/A.java")),
+                    java("""
+                            class B {
+                                private int test() {
+                                    return 0;
+                                }
+                            }
+                            """, """
+                            class B {
+                                private static int test() {
+                                    return 0;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void includedSourcePaths() {
+            rewriteRun(spec -> spec
+                            .recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withIncludedSourcePaths(List.of("src/main/java/B.java", "src/test/**")))
+                            .cycles(1).expectedCyclesThatMakeChanges(1)
+                            .dataTable(SkippedAnalysis.Row.class, rows -> assertThat(rows).isEmpty()),
+                    java("""
+                            class A {
+                                private int test() {
+                                    return 0;
+                                }
+                            }
+                            """, spec -> spec.path("src/main/java/A.java")),
+                    java("""
+                            class B {
+                                private int test() {
+                                    return 0;
+                                }
+                            }
+                            """, """
+                            class B {
+                                private static int test() {
+                                    return 0;
+                                }
+                            }
+                            """, spec -> spec.path("src/main/java/B.java")),
+                    java("""
+                            class C {
+                                private int test() {
+                                    return 0;
+                                }
+                            }
+                            """, """
+                            class C {
+                                private static int test() {
+                                    return 0;
+                                }
+                            }
+                            """, spec -> spec.path("src/test/java/C.java")));
+        }
+
+        @Test
+        void excludedAnnotation() {
+            rewriteRun(spec -> spec
+                            .recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withExcludedAnnotations(List.of("javax.annotation.processing.Generated")))
+                            .cycles(1).expectedCyclesThatMakeChanges(1)
+                            .dataTable(SkippedAnalysis.Row.class, rows -> assertThat(rows)
+                                    .extracting(SkippedAnalysis.Row::getElement, SkippedAnalysis.Row::getReason)
+                                    .containsExactly(tuple("A", SkippedAnalysis.EXCLUDED_ANNOTATION))),
+                    java("""
+                            import javax.annotation.processing.Generated;
+                            
+                            @Generated("protoc")
+                            class A {
+                                private int test() {
+                                    return 0;
+                                }
+                                
+                                class B {
+                                    private int test() {
+                                        return 0;
+                                    }
+                                }
+                            }
+                            
+                            class C {
+                                private int test() {
+                                    return 0;
+                                }
+                            }
+                            """, """
+                            import javax.annotation.processing.Generated;
+                            
+                            @Generated("protoc")
+                            class A {
+                                private int test() {
+                                    return 0;
+                                }
+                                
+                                class B {
+                                    private int test() {
+                                        return 0;
+                                    }
+                                }
+                            }
+                            
+                            class C {
+                                private static int test() {
+                                    return 0;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void excludedAnnotationWithLambdas() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withConvertAnonymousClassesToLambdas(true)
+                            .withExcludedAnnotations(List.of("java.lang.Deprecated"))),
+                    java("""
+                            @Deprecated
+                            class A {
+                                public Runnable create() {
+                                    return new Runnable() {
+                                        public void run() {
+                                            System.out.println("run");
+                                        }
+                                    };
+                                }
+                            }
+                            
+                            class B {
+                                public Runnable create() {
+                                    return new Runnable() {
+                                        public void run() {
+                                            System.out.println("run");
+                                        }
+                                    };
+                                }
+                            }
+                            """, """
+                            @Deprecated
+                            class A {
+                                public Runnable create() {
+                                    return new Runnable() {
+                                        public void run() {
+                                            System.out.println("run");
+                                        }
+                                    };
+                                }
+                            }
+                            
+                            class B {
+                                public Runnable create() {
+                                    return () -> {
+                                        System.out.println("run");
+                                    };
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void sizeLimitsWithLambdas() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withConvertAnonymousClassesToLambdas(true)
+                            .withMaxClassMethods(1).withMaxMethodBodyNodes(15)),
+                    java("""
+                            class A {
+                                public Runnable create() {
+                                    return new Runnable() {
+                                        public void run() {
+                                        }
+                                    };
+                                }
+                                
+                                public Runnable other() {
+                                    return null;
+                                }
+                            }
+                            
+                            class B {
+                                public Runnable create() {
+                                    int a = 1 + 2 + 3 + 4 + 5;
+                                    int b = a + 6 + 7 + 8 + 9;
+                                    return new Runnable() {
+                                        public void run() {
+                                        }
+                                    };
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void maxMethodBodyNodes() {
+            rewriteRun(spec -> spec
+                            .recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMaxMethodBodyNodes(10))
+                            .cycles(1).expectedCyclesThatMakeChanges(1)
+                            .dataTable(SkippedAnalysis.Row.class, rows -> assertThat(rows)
+                                    .extracting(SkippedAnalysis.Row::getElement, SkippedAnalysis.Row::getReason)
+                                    .containsExactly(tuple("A large()", SkippedAnalysis.METHOD_BODY_TOO_LARGE))),
+                    java("""
+                            class A {
+                                private int small() {
+                                    return 0;
+                                }
+                                
+                                private int large() {
+                                    int a = 1 + 2 + 3 + 4 + 5;
+                                    int b = a + 6 + 7 + 8 + 9;
+                                    return a + b;
+                                }
+                            }
+                            """, """
+                            class A {
+                                private static int small() {
+                                    return 0;
+                                }
+                                
+                                private int large() {
+                                    int a = 1 + 2 + 3 + 4 + 5;
+                                    int b = a + 6 + 7 + 8 + 9;
+                                    return a + b;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void maxClassMethods() {
+            rewriteRun(spec -> spec
+                            .recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMaxClassMethods(1))
+                            .cycles(1).expectedCyclesThatMakeChanges(1)
+                            .dataTable(SkippedAnalysis.Row.class, rows -> assertThat(rows)
+                                    .extracting(SkippedAnalysis.Row::getElement, SkippedAnalysis.Row::getReason)
+                                    .containsExactly(tuple("A", SkippedAnalysis.TOO_MANY_METHODS))),
+                    java("""
+                            class A {
+                                private int test1() {
+                                    return 0;
+                                }
+                                
+                                private int test2() {
+                                    return 0;
+                                }
+                                
+                                static class B {
+                                    private int test() {
+                                        return 0;
+                                    }
+                                }
+                            }
+                            """, """
+                            class A {
+                                private int test1() {
+                                    return 0;
+                                }
+                                
+                                private int test2() {
+                                    return 0;
+                                }
+                                
+                                static class B {
+                                    private static int test() {
+                                        return 0;
+                                    }
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void timeBudgetPerFile() {
+            rewriteRun(spec -> spec
+                            .recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withTimeBudgetPerFile(0))
+                            .cycles(1).expectedCyclesThatMakeChanges(0)
+                            .dataTable(AnalysisTimeouts.Row.class, rows -> assertThat(rows)
+                                    .extracting(AnalysisTimeouts.Row::getSourcePath)
+                                    .containsExactly("A.java")),
+                    java("""
+                            class A {
+                                private int test() {
+                                    return 0;
+                                }
+                            }
+                            """));
+        }
+    }
+
+    @Nested
+    class InnerClasses {
+        @Test
+        void innerClassWithoutOuterInstanceAccess() {
+            rewriteRun(spec -> spec
+                            .recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeInnerClassesStatic(true))
+                            .cycles(1).expectedCyclesThatMakeChanges(1)
+                            .dataTable(InnerClassesMadeStatic.Row.class, rows -> assertThat(rows)
+                                    .containsExactly(new InnerClassesMadeStatic.Row("A.java", "A$B", InnerClassesMadeStatic.OUTER_REFERENCE_BYTES))),
+                    java("""
+                            class A {
+                                private class B {
+                                    int b = 0;
+                                    
+                                    int get() {
+                                        return this.b + b;
+                                    }
+                                }
+                                
+                                private B create() {
+                                    return new B();
+                                }
+                            }
+                            """, """
+                            class A {
+                                private static class B {
+                                    int b = 0;
+                                    
+                                    int get() {
+                                        return this.b + b;
+                                    }
+                                }
+                                
+                                private static B create() {
+                                    return new B();
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void innerClassInvokingMethodBecomingStatic() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeInnerClassesStatic(true)),
+                    java("""
+                            class A {
+                                private int helper() {
+                                    return 0;
+                                }
+                                
+                                private class B {
+                                    int get() {
+                                        return helper();
+                                    }
+                                }
+                            }
+                            """, """
+                            class A {
+                                private static int helper() {
+                                    return 0;
+                                }
+                                
+                                private static class B {
+                                    static int get() {
+                                        return helper();
+                                    }
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void innerClassWithOuterFieldAccess() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeInnerClassesStatic(true)),
+                    java("""
+                            class A {
+                                int a = 0;
+                                
+                                private class B {
+                                    int get() {
+                                        return a;
+                                    }
+                                }
+                                
+                                private B create() {
+                                    return new B();
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void innerClassWithQualifiedThis() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeInnerClassesStatic(true)),
+                    java("""
+                            class A {
+                                private class B {
+                                    Object get() {
+                                        return A.this;
+                                    }
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void innerClassInstantiatingAnotherInnerClass() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeInnerClassesStatic(true)),
+                    java("""
+                            class A {
+                                int a = 0;
+                                
+                                private class B {
+                                    C get() {
+                                        return new C();
+                                    }
+                                }
+                                
+                                private class C {
+                                    int get() {
+                                        return a;
+                                    }
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void innerClassExtendingAnotherInnerClass() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeInnerClassesStatic(true)),
+                    java("""
+                            class A {
+                                int a = 0;
+                                
+                                class B {
+                                }
+                                
+                                private class C extends B {
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void nonPrivateInnerClass() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeInnerClassesStatic(true)),
+                    java("""
+                            class A {
+                                class B {
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void innerClassOfGenericClass() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeInnerClassesStatic(true)),
+                    java("""
+                            class A<T> {
+                                private class B {
+                                    T value;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void disabledByDefault() {
+            rewriteRun(java("""
+                    class A {
+                        private class B {
+                        }
+                    }
+                    """));
+        }
+    }
+
+    @Nested
+    class ThisReferences {
+        @Test
+        void methodReferenceToMethodBecomingStatic() {
+            rewriteRun(java("""
+                    import java.util.List;
+                    
+                    class A {
+                        public void run(List<Integer> list) {
+                            list.forEach(this::print);
+                        }
+                        
+                        private void print(int i) {
+                            System.out.println(i);
+                        }
+                    }
+                    """, """
+                    import java.util.List;
+                    
+                    class A {
+                        public void run(List<Integer> list) {
+                            list.forEach(A::print);
+                        }
+                        
+                        private static void print(int i) {
+                            System.out.println(i);
+                        }
+                    }
+                    """));
+        }
+
+        @Test
+        void methodReferenceFromMethodBecomingStatic() {
+            rewriteRun(java("""
+                    import java.util.List;
+                    
+                    class A {
+                        private void run(List<Integer> list) {
+                            list.forEach(this::print);
+                        }
+                        
+                        private void print(int i) {
+                            System.out.println(i);
+                        }
+                    }
+                    """, """
+                    import java.util.List;
+                    
+                    class A {
+                        private static void run(List<Integer> list) {
+                            list.forEach(A::print);
+                        }
+                        
+                        private static void print(int i) {
+                            System.out.println(i);
+                        }
+                    }
+                    """));
+        }
+
+        @Test
+        void qualifiedThisMethodReference() {
+            rewriteRun(java("""
+                    import java.util.List;
+                    
+                    class A {
+                        class B {
+                            void run(List<Integer> list) {
+                                list.forEach(A.this::print);
+                            }
+                        }
+                        
+                        private void print(int i) {
+                            System.out.println(i);
+                        }
+                    }
+                    """, """
+                    import java.util.List;
+                    
+                    class A {
+                        class B {
+                            void run(List<Integer> list) {
+                                list.forEach(A::print);
+                            }
+                        }
+                        
+                        private static void print(int i) {
+                            System.out.println(i);
+                        }
+                    }
+                    """));
+        }
+
+        @Test
+        void methodReferenceInNestedClass() {
+            rewriteRun(java("""
+                    import java.util.List;
+                    
+                    class A {
+                        static class B {
+                            public void run(List<Integer> list) {
+                                list.forEach(this::print);
+                            }
+                            
+                            private void print(int i) {
+                                System.out.println(i);
+                            }
+                        }
+                    }
+                    """, """
+                    import java.util.List;
+                    
+                    class A {
+                        static class B {
+                            public void run(List<Integer> list) {
+                                list.forEach(A.B::print);
+                            }
+                            
+                            private static void print(int i) {
+                                System.out.println(i);
+                            }
+                        }
+                    }
+                    """));
+        }
+
+        @Test
+        void explicitThisInvocationInLambda() {
+            rewriteRun(java("""
+                    import java.util.List;
+                    
+                    class A {
+                        public void run(List<Integer> list) {
+                            list.forEach(i -> this.print(i));
+                        }
+                        
+                        private void print(int i) {
+                            System.out.println(i);
+                        }
+                    }
+                    """, """
+                    import java.util.List;
+                    
+                    class A {
+                        public void run(List<Integer> list) {
+                            list.forEach(i -> print(i));
+                        }
+                        
+                        private static void print(int i) {
+                            System.out.println(i);
+                        }
+                    }
+                    """));
+        }
+
+        @Test
+        void methodReferenceToMethodNotBecomingStatic() {
+            rewriteRun(java("""
+                    import java.util.List;
+                    
+                    class A {
+                        int a = 0;
+                        
+                        private void run(List<Integer> list) {
+                            list.forEach(this::print);
+                        }
+                        
+                        private void print(int i) {
+                            System.out.println(i + a);
+                        }
+                    }
+                    """));
+        }
+    }
+
+    @Nested
+    class AnonymousClassHoisting {
+        @Test
+        void statelessAnonymousClass() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withHoistAnonymousClasses(true)),
+                    java("""
+                            import java.util.Comparator;
+                            import java.util.List;
+                            
+                            class A {
+                                public void sort(List<String> list) {
+                                    list.sort(new Comparator<String>() {
+                                        @Override
+                                        public int compare(String a, String b) {
+                                            return a.length() - b.length();
+                                        }
+                                    });
+                                }
+                            }
+                            """, """
+                            import java.util.Comparator;
+                            import java.util.List;
+                            
+                            class A {
+                                private static final Comparator<String> COMPARATOR = new Comparator<String>() {
+                                    @Override
+                                    public int compare(String a, String b) {
+                                        return a.length() - b.length();
+                                    }
+                                };
+                            
+                                public void sort(List<String> list) {
+                                    list.sort(COMPARATOR);
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void uniqueConstantNames() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withHoistAnonymousClasses(true)),
+                    java("""
+                            class A {
+                                int RUNNABLE = 0;
+                                
+                                public Runnable first() {
+                                    return new Runnable() {
+                                        public void run() {
+                                        }
+                                    };
+                                }
+                                
+                                public Runnable second() {
+                                    return new Runnable() {
+                                        public void run() {
+                                            System.out.println();
+                                        }
+                                    };
+                                }
+                            }
+                            """, """
+                            class A {
+                                private static final Runnable RUNNABLE_2 = new Runnable() {
+                                    public void run() {
+                                    }
+                                };
+                                private static final Runnable RUNNABLE_3 = new Runnable() {
+                                    public void run() {
+                                        System.out.println();
+                                    }
+                                };
+                            
+                                int RUNNABLE = 0;
+                            
+                                public Runnable first() {
+                                    return RUNNABLE_2;
+                                }
+                            
+                                public Runnable second() {
+                                    return RUNNABLE_3;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void capturedLocal() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withHoistAnonymousClasses(true)),
+                    java("""
+                            class A {
+                                public Runnable create(String message) {
+                                    return new Runnable() {
+                                        public void run() {
+                                            System.out.println(message);
+                                        }
+                                    };
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void enclosingInstanceAccess() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withHoistAnonymousClasses(true)),
+                    java("""
+                            class A {
+                                String message = "";
+                                
+                                public Runnable create() {
+                                    return new Runnable() {
+                                        public void run() {
+                                            System.out.println(message);
+                                        }
+                                    };
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void statefulAnonymousClass() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withHoistAnonymousClasses(true)),
+                    java("""
+                            class A {
+                                public Runnable create() {
+                                    return new Runnable() {
+                                        int count = 0;
+                                        
+                                        public void run() {
+                                            count++;
+                                        }
+                                    };
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void localTypesNotHoisted() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withHoistAnonymousClasses(true)),
+                    java("""
+                            class A {
+                                public Runnable record() {
+                                    record P(int x) {
+                                    }
+                                    return new Runnable() {
+                                        public void run() {
+                                            System.out.println(new P(1));
+                                        }
+                                    };
+                                }
+                                
+                                public Runnable enumeration() {
+                                    enum E {
+                                        X
+                                    }
+                                    return new Runnable() {
+                                        public void run() {
+                                            System.out.println(E.X);
+                                        }
+                                    };
+                                }
+                                
+                                public Runnable staticMember() {
+                                    interface L {
+                                        static void go() {
+                                        }
+                                    }
+                                    return new Runnable() {
+                                        public void run() {
+                                            L.go();
+                                        }
+                                    };
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void excludedClassNotHoisted() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withHoistAnonymousClasses(true)
+                            .withExcludedAnnotations(List.of("java.lang.Deprecated"))),
+                    java("""
+                            @Deprecated
+                            class A {
+                                public Runnable create() {
+                                    return new Runnable() {
+                                        public void run() {
+                                        }
+                                    };
+                                }
+                                
+                                static class B {
+                                    public Runnable create() {
+                                        return new Runnable() {
+                                            public void run() {
+                                            }
+                                        };
+                                    }
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void oversizedClassAndMethodNotHoisted() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withHoistAnonymousClasses(true)
+                            .withMaxClassMethods(1).withMaxMethodBodyNodes(15)),
+                    java("""
+                            class A {
+                                public Runnable create() {
+                                    return new Runnable() {
+                                        public void run() {
+                                        }
+                                    };
+                                }
+                                
+                                public Runnable other() {
+                                    return null;
+                                }
+                            }
+                            
+                            class B {
+                                public Runnable create() {
+                                    int a = 1 + 2 + 3 + 4 + 5;
+                                    int b = a + 6 + 7 + 8 + 9;
+                                    return new Runnable() {
+                                        public void run() {
+                                        }
+                                    };
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void anonymousSubclassNotHoisted() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withHoistAnonymousClasses(true)),
+                    java("""
+                            class A {
+                                public void startWorker() {
+                                    new Thread() {
+                                        public void run() {
+                                            System.out.println("working");
+                                        }
+                                    }.start();
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void constantAfterEnumConstants() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withHoistAnonymousClasses(true)),
+                    java("""
+                            enum E {
+                                X, Y;
+                                
+                                public Runnable task() {
+                                    return new Runnable() {
+                                        public void run() {
+                                        }
+                                    };
+                                }
+                            }
+                            """, """
+                            enum E {
+                                X, Y;
+                            
+                                private static final Runnable RUNNABLE = new Runnable() {
+                                    public void run() {
+                                    }
+                                };
+                            
+                                public Runnable task() {
+                                    return RUNNABLE;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void innerClassOfInnerClass() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withHoistAnonymousClasses(true)),
+                    java("""
+                            class A {
+                                class B {
+                                    public Runnable create() {
+                                        return new Runnable() {
+                                            public void run() {
+                                            }
+                                        };
+                                    }
+                                }
+                            }
+                            """));
+        }
+    }
+
+    @Nested
+    class ConstantFields {
+        @Test
+        void constantFieldBecomesStatic() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeConstantFieldsStatic(true)),
+                    java("""
+                            class A {
+                                private final int LIMIT = 10 * 2;
+                                private final String NAME = "a", OTHER = "b";
+                                
+                                private int limit() {
+                                    return LIMIT + NAME.length() + OTHER.length();
+                                }
+                            }
+                            """, """
+                            class A {
+                                private static final int LIMIT = 10 * 2;
+                                private static final String NAME = "a", OTHER = "b";
+                                
+                                private static int limit() {
+                                    return LIMIT + NAME.length() + OTHER.length();
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void nonConstantField() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeConstantFieldsStatic(true)),
+                    java("""
+                            import java.util.ArrayList;
+                            import java.util.List;
+                            
+                            class A {
+                                private final List<String> list = new ArrayList<>();
+                                private final long time = System.currentTimeMillis();
+                                private int limit = 10;
+                                
+                                private int size() {
+                                    return list.size() + limit + (int) time;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void annotatedField() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeConstantFieldsStatic(true)),
+                    java("""
+                            class A {
+                                @Deprecated
+                                private final int LIMIT = 10;
+                                
+                                private int limit() {
+                                    return LIMIT;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void serializableClass() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeConstantFieldsStatic(true)),
+                    java("""
+                            class A implements java.io.Serializable {
+                                private final int LIMIT = 10;
+                            }
+                            """));
+        }
+
+        @Test
+        void disabledByDefault() {
+            rewriteRun(java("""
+                    class A {
+                        private final int LIMIT = 10;
+                        
+                        private int limit() {
+                            return LIMIT;
+                        }
+                    }
+                    """));
+        }
+    }
+
+    @Nested
+    class DeadFieldDetection {
+        @Test
+        void reportUnusedAndWriteOnlyFields() {
+            rewriteRun(spec -> spec
+                            .recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withReportDeadFields(true))
+                            .cycles(1).expectedCyclesThatMakeChanges(0)
+                            .dataTable(DeadFields.Row.class, rows -> assertThat(rows)
+                                    .containsExactlyInAnyOrder(
+                                            new DeadFields.Row("A.java", "A", "unused", DeadFields.UNUSED, false),
+                                            new DeadFields.Row("A.java", "A", "written", DeadFields.WRITE_ONLY, false))),
+                    java("""
+                            class A {
+                                private int unused = 1;
+                                private int written;
+                                private int read;
+                                private int incremented;
+                                int packagePrivate;
+                                
+                                public void set(int i) {
+                                    this.written = i;
+                                    incremented++;
+                                }
+                                
+                                public int get() {
+                                    return read;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void removeUnusedFields() {
+            rewriteRun(spec -> spec
+                            .recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withRemoveDeadFields(true))
+                            .cycles(1).expectedCyclesThatMakeChanges(1),
+                    java("""
+                            class A {
+                                private int unused = 1;
+                                private String a = "a", b = "b";
+                                private Object sideEffect = new Object();
+                                private int written;
+                                
+                                public void set(int i) {
+                                    written = i;
+                                }
+                                
+                                public String get() {
+                                    return a;
+                                }
+                            }
+                            """, """
+                            class A {
+                                private String a = "a";
+                                private Object sideEffect = new Object();
+                                private int written;
+                                
+                                public void set(int i) {
+                                    written = i;
+                                }
+                                
+                                public String get() {
+                                    return a;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void fieldReadFromAnotherInstance() {
+            rewriteRun(spec -> spec
+                            .recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withRemoveDeadFields(true))
+                            .cycles(1).expectedCyclesThatMakeChanges(0)
+                            .dataTable(DeadFields.Row.class, rows -> assertThat(rows).isEmpty()),
+                    java("""
+                            class A {
+                                private int value;
+                                
+                                public boolean same(A other) {
+                                    return other.value == 0;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void annotatedAndSerializableFields() {
+            rewriteRun(spec -> spec
+                            .recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withRemoveDeadFields(true))
+                            .cycles(1).expectedCyclesThatMakeChanges(0),
+                    java("""
+                            class A {
+                                @Deprecated
+                                private int injected;
+                            }
+                            """),
+                    java("""
+                            class B implements java.io.Serializable {
+                                private int state;
+                            }
+                            """));
+        }
+
+        @Test
+        void annotatedAndExcludedClasses() {
+            rewriteRun(spec -> spec
+                            .recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withRemoveDeadFields(true)
+                                    .withExcludedAnnotations(List.of("javax.annotation.processing.Generated")))
+                            .cycles(1).expectedCyclesThatMakeChanges(0)
+                            .dataTable(DeadFields.Row.class, rows -> assertThat(rows).isEmpty()),
+                    java("""
+                            @Deprecated
+                            class A {
+                                private String name;
+                                private int count = 0;
+                                
+                                class B {
+                                    private int nested;
+                                }
+                            }
+                            """),
+                    java("""
+                            @javax.annotation.processing.Generated("generator")
+                            class C {
+                                private int generated;
+                            }
+                            """));
+        }
+
+        @Test
+        void disabledByDefault() {
+            rewriteRun(spec -> spec
+                            .cycles(1).expectedCyclesThatMakeChanges(0)
+                            .dataTable(DeadFields.Row.class, rows -> assertThat(rows).isEmpty()),
+                    java("""
+                            class A {
+                                private int unused = 1;
+                            }
+                            """));
+        }
+    }
+
+    @Nested
+    class PerformanceImpactReport {
+        @Test
+        void countsPerClass() {
+            rewriteRun(spec -> spec
+                            .recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeInnerClassesStatic(true))
+                            .cycles(1).expectedCyclesThatMakeChanges(1)
+                            .dataTable(PerformanceImpact.Row.class, rows -> assertThat(rows)
+                                    .containsExactlyInAnyOrder(
+                                            new PerformanceImpact.Row("", "A.java", "A", 3, 1, 0, 2, 0, 0),
+                                            new PerformanceImpact.Row("", "A.java", "A$B", 0, 0, 1, 0, 0, 0))),
+                    java("""
+                            import java.util.function.IntSupplier;
+                            
+                            class A {
+                                private class B {
+                                }
+                                
+                                private int zero() {
+                                    return 0;
+                                }
+                                
+                                public int sum(A other) {
+                                    IntSupplier supplier = this::zero;
+                                    return this.zero() + zero() + other.zero() + supplier.getAsInt();
+                                }
+                            }
+                            """, """
+                            import java.util.function.IntSupplier;
+                            
+                            class A {
+                                private static class B {
+                                }
+                                
+                                private static int zero() {
+                                    return 0;
+                                }
+                                
+                                public int sum(A other) {
+                                    IntSupplier supplier = A::zero;
+                                    return zero() + zero() + other.zero() + supplier.getAsInt();
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void noRowsWithoutChanges() {
+            rewriteRun(spec -> spec
+                            .cycles(1).expectedCyclesThatMakeChanges(0)
+                            .dataTable(PerformanceImpact.Row.class, rows -> assertThat(rows).isEmpty()),
+                    java("""
+                            class A {
+                                int a = 0;
+                                
+                                private int get() {
+                                    return a;
+                                }
+                            }
+                            """));
+        }
+    }
+
+    @Nested
+    class MinimalChanges {
+        @Test
+        void onlyTheModifierIsInserted() {
+            rewriteRun(java("""
+                    class A {
+                        private   final <T> T first(T a,
+                                                    T b)   {
+                            return a ;
+                        }
+                        
+                        private void empty() {}
+                    }
+                    """, """
+                    class A {
+                        private   final static <T> T first(T a,
+                                                    T b)   {
+                            return a ;
+                        }
+                        
+                        private static void empty() {}
+                    }
+                    """));
+        }
+    }
+
+    @Nested
+    class Sharding {
+        @Test
+        void onlyFilesOfTheShardAreModified() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withShardCount(2).withShardIndex(0)),
+                    java("""
+                            class A {
+                                private int zero() {
+                                    return 0;
+                                }
+                            }
+                            """),
+                    java("""
+                            class B {
+                                private int zero() {
+                                    return 0;
+                                }
+                            }
+                            """, """
+                            class B {
+                                private static int zero() {
+                                    return 0;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void shardOptionsAreValidated() {
+            NonOverridableMethodsNoInstanceDataToStaticRecipe recipe = new NonOverridableMethodsNoInstanceDataToStaticRecipe();
+            assertThat(recipe.withShardCount(2).withShardIndex(1).validate().isValid()).isTrue();
+            assertThat(recipe.withShardCount(2).validate().isValid()).isFalse();
+            assertThat(recipe.withShardIndex(0).validate().isValid()).isFalse();
+            assertThat(recipe.withShardCount(2).withShardIndex(2).validate().isValid()).isFalse();
+        }
+    }
+
+    @Nested
+    class DeepExpressions {
+        // The parser and the printer recurse on these expressions, so they get a large stack. The recipe gets a small one,
+        // that a recursive descent of the chain would overflow.
+        static final int DEPTH = 2000;
+        static final long LARGE_STACK = 256 * 1024 * 1024;
+        static final long SMALL_STACK = 256 * 1024;
+
+        private static <T> T withStack(long stackSize, Callable<T> callable) throws Exception {
+            FutureTask<T> task = new FutureTask<>(callable);
+            Thread thread = new Thread(null, task, "deep-expressions", stackSize);
+            thread.start();
+            return task.get();
+        }
+
+        private String rewrite(String source) throws Exception {
+            return rewrite(new NonOverridableMethodsNoInstanceDataToStaticRecipe(), source);
+        }
+
+        private String rewrite(NonOverridableMethodsNoInstanceDataToStaticRecipe recipe, String source) throws Exception {
+            J.CompilationUnit before = withStack(LARGE_STACK, () -> JavaParser.fromJavaVersion().build().parse(source).get(0));
+            J.CompilationUnit after = withStack(SMALL_STACK, () -> (J.CompilationUnit) recipe
+                    .getVisitor().visitNonNull(before, new InMemoryExecutionContext(Throwable::printStackTrace)));
+            return withStack(LARGE_STACK, after::printAll);
+        }
+
+        private void assertMadeStatic(String returnType, String expression) throws Exception {
+            assertThat(rewrite("""
+                    class A {
+                        private %s m(String s) {
+                            return %s;
+                        }
+                    }
+                    """.formatted(returnType, expression))).isEqualTo("""
+                    class A {
+                        private static %s m(String s) {
+                            return %s;
+                        }
+                    }
+                    """.formatted(returnType, expression));
+        }
+
+        @Test
+        void longConcatenation() throws Exception {
+            assertMadeStatic("String", "s" + " + s".repeat(DEPTH));
+        }
+
+        @Test
+        void longChainsWithNodeLimit() throws Exception {
+            String source = """
+                    class A {
+                        private String concatenation(String s) {
+                            return s%s;
+                        }
+                        
+                        private String ternary(String s) {
+                            return %ss;
+                        }
+                        
+                        private String builder(String s) {
+                            return new StringBuilder()%s.toString();
+                        }
+                    }
+                    """.formatted(" + s".repeat(DEPTH), "s.isEmpty() ? s : ".repeat(DEPTH), ".append(s)".repeat(DEPTH));
+            assertThat(rewrite(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMaxMethodBodyNodes(DEPTH), source)).isEqualTo(source);
+            assertThat(rewrite(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMaxMethodBodyNodes(100 * DEPTH), source))
+                    .isEqualTo(source.replace("private String", "private static String"));
+        }
+
+        @Test
+        void longTernaryChain() throws Exception {
+            assertMadeStatic("String", "s.isEmpty() ? s : ".repeat(DEPTH) + "s");
+        }
+
+        @Test
+        void longBuilderChain() throws Exception {
+            assertMadeStatic("String", "new StringBuilder()" + ".append(s)".repeat(DEPTH) + ".toString()");
+        }
+
+        @Test
+        void instanceAccessAtTheEndOfALongConcatenation() throws Exception {
+            String source = """
+                    class A {
+                        String field = "";
+                        
+                        private String m(String s) {
+                            return s%s + field;
+                        }
+                    }
+                    """.formatted(" + s".repeat(DEPTH));
+            assertThat(rewrite(source)).isEqualTo(source);
+        }
+
+        @Test
+        void thisInvocationsInALongBuilderChain() throws Exception {
+            assertThat(rewrite("""
+                    class A {
+                        private String first(String s) {
+                            return s;
+                        }
+                        
+                        private String m(String s) {
+                            return new StringBuilder()%s.append(this.first(s)).toString();
+                        }
+                    }
+                    """.formatted(".append(s)".repeat(DEPTH)))).isEqualTo("""
+                    class A {
+                        private static String first(String s) {
+                            return s;
+                        }
+                        
+                        private static String m(String s) {
+                            return new StringBuilder()%s.append(first(s)).toString();
+                        }
+                    }
+                    """.formatted(".append(s)".repeat(DEPTH)));
+        }
+    }
+
+    @Nested
+    class InstanceAccessAnalysis {
+        private J.MethodDeclaration method(J.CompilationUnit cu, String name) {
+            return cu.getClasses().get(0).getBody().getStatements().stream()
+                    .filter(statement -> statement instanceof J.MethodDeclaration && ((J.MethodDeclaration) statement).getSimpleName().equals(name))
+                    .map(J.MethodDeclaration.class::cast)
+                    .findFirst()
+                    .orElseThrow();
+        }
+
+        @Test
+        void analyzeMethods() {
+            J.CompilationUnit cu = JavaParser.fromJavaVersion().build().parse("""
+                    class A {
+                        int field;
+                        
+                        int read() {
+                            return field;
+                        }
+                        
+                        private int helper() {
+                            return 0;
+                        }
+                        
+                        int callHelper() {
+                            return helper();
+                        }
+                        
+                        int pure(int i) {
+                            return i;
+                        }
+                    }
+                    """).get(0);
+            ExecutionContext ctx = new InMemoryExecutionContext();
+
+            assertThat(InstanceAccessAnalyzer.analyze(method(cu, "read"), ctx).get()).isTrue();
+
+            InstanceAccess callHelper = InstanceAccessAnalyzer.analyze(method(cu, "callHelper"), ctx);
+            assertThat(callHelper.get()).isFalse();
+            assertThat(callHelper.getMethodInvocations()).extracting(JavaType.Method::getName).containsExactly("helper");
+
+            InstanceAccess pure = InstanceAccessAnalyzer.analyze(method(cu, "pure"), ctx);
+            assertThat(pure.get()).isFalse();
+            assertThat(pure.dependsOnlyOn(Set.of(), Set.of())).isTrue();
+        }
+
+        @Test
+        void resultsAreSharedThroughTheExecutionContext() {
+            J.CompilationUnit cu = JavaParser.fromJavaVersion().build().parse("""
+                    class A {
+                        int pure(int i) {
+                            return i;
+                        }
+                    }
+                    """).get(0);
+            ExecutionContext ctx = new InMemoryExecutionContext();
+            J.MethodDeclaration pure = method(cu, "pure");
+
+            assertThat(InstanceAccessAnalyzer.analyze(pure, ctx)).isSameAs(InstanceAccessAnalyzer.analyze(pure, ctx));
+            assertThat(InstanceAccessAnalyzer.analyze(pure, new InMemoryExecutionContext())).isNotSameAs(InstanceAccessAnalyzer.analyze(pure, ctx));
+
+            // A changed body is a new tree with the same id, and is analyzed again
+            J.MethodDeclaration changed = pure.withBody(pure.getBody().withPrefix(Space.format("  ")));
+            assertThat(InstanceAccessAnalyzer.analyze(changed, ctx)).isNotSameAs(InstanceAccessAnalyzer.analyze(pure, ctx));
+        }
+
+        @Test
+        void secondCycleReusesTheResults() {
+            J.CompilationUnit cu = JavaParser.fromJavaVersion().build().parse("""
+                    class A {
+                        int field;
+                        
+                        private int read() {
+                            return field;
+                        }
+                        
+                        private int helper() {
+                            return 0;
+                        }
+                    }
+                    """).get(0);
+            ExecutionContext ctx = new InMemoryExecutionContext();
+            NonOverridableMethodsNoInstanceDataToStaticRecipe recipe = new NonOverridableMethodsNoInstanceDataToStaticRecipe();
+
+            J.CompilationUnit firstCycle = (J.CompilationUnit) recipe.getVisitor().visitNonNull(cu, ctx);
+            J.Block read = method(firstCycle, "read").getBody();
+            InstanceAccess cached = InstanceAccessAnalyzer.get(ctx).find(read, Set.of(), TimeBudget.UNLIMITED, false);
+            assertThat(cached.get()).isTrue();
+
+            // The second cycle finds the unchanged body in the cache, and does not replace its result
+            J.CompilationUnit secondCycle = (J.CompilationUnit) recipe.getVisitor().visitNonNull(firstCycle, ctx);
+            assertThat(method(secondCycle, "read").getBody()).isSameAs(read);
+            assertThat(InstanceAccessAnalyzer.get(ctx).find(read, Set.of(), TimeBudget.UNLIMITED, false)).isSameAs(cached);
+        }
+    }
+
+    @Nested
+    class InvocationChains {
+        private String chain(int length, boolean isStatic, String last) {
+            StringBuilder source = new StringBuilder("class A {\n    int field = 0;\n");
+            for (int i = 0; i < length; i++) {
+                source.append("\n    private ").append(isStatic ? "static " : "").append("int m").append(i).append("() {\n        return ")
+                        .append(i == length - 1 ? last : "m" + (i + 1) + "()").append(";\n    }\n");
+            }
+            return source.append("}\n").toString();
+        }
+
+        @Test
+        void instanceAccessAtTheEndOfALongChain() {
+            rewriteRun(java(chain(200, false, "field")));
+        }
+
+        @Test
+        void noInstanceAccessInALongChain() {
+            rewriteRun(java(chain(200, false, "0"), chain(200, true, "0")));
+        }
+
+        @Test
+        void cycleWithInstanceAccess() {
+            rewriteRun(java("""
+                    class A {
+                        int field = 0;
+                        
+                        private int a(int i) {
+                            return i > 0 ? b(i - 1) : field;
+                        }
+                        
+                        private int b(int i) {
+                            return a(i) + c();
+                        }
+                        
+                        private int c() {
+                            return 0;
+                        }
+                    }
+                    """, """
+                    class A {
+                        int field = 0;
+                        
+                        private int a(int i) {
+                            return i > 0 ? b(i - 1) : field;
+                        }
+                        
+                        private int b(int i) {
+                            return a(i) + c();
+                        }
+                        
+                        private static int c() {
+                            return 0;
+                        }
+                    }
+                    """));
+        }
+    }
+
+    @Nested
+    class MissingClasspath {
+        // Sources parsed without the classpath their dependencies come from
+
+        @Test
+        void inheritedFieldOfUnknownSuperclass() {
+            rewriteRun(spec -> spec.typeValidationOptions(TypeValidation.none()), java("""
+                    import com.example.Base;
+                                        
+                    class A extends Base {
+                        private int m() {
+                            return inherited + this.other;
+                        }
+                    }
+                    """));
+        }
+
+        @Test
+        void inheritedMethodOfUnknownSuperclass() {
+            rewriteRun(spec -> spec.typeValidationOptions(TypeValidation.none()), java("""
+                    import com.example.Base;
+                                        
+                    class A extends Base {
+                        private int m() {
+                            return inherited();
+                        }
+                    }
+                    """));
+        }
+
+        @Test
+        void inheritedInnerClassOfUnknownSuperclass() {
+            rewriteRun(spec -> spec.typeValidationOptions(TypeValidation.none()), java("""
+                    import com.example.Base;
+                                        
+                    class A extends Base {
+                        private Object m() {
+                            return new Inner();
+                        }
+                    }
+                    """));
+        }
+
+        @Test
+        void nestedInClassWithUnknownSuperclass() {
+            rewriteRun(spec -> spec.typeValidationOptions(TypeValidation.none()), java("""
+                    import com.example.Base;
+                                        
+                    class A extends Base {
+                        class B {
+                            private int m() {
+                                return inherited;
+                            }
+                        }
+                    }
+                    """));
+        }
+
+        @Test
+        void ownMethodWithArgumentOfUnknownType() {
+            rewriteRun(spec -> spec.typeValidationOptions(TypeValidation.none()), java("""
+                    import com.example.Util;
+                                        
+                    class A {
+                        int field = 0;
+                                        
+                        private int m(Util util) {
+                            return n(util);
+                        }
+                                        
+                        private int n(Util util) {
+                            return field;
+                        }
+                    }
+                    """));
+        }
+
+        @Test
+        void unknownTypesWithKnownSuperclass() {
+            rewriteRun(spec -> spec.typeValidationOptions(TypeValidation.none()), java("""
+                    import com.example.Util;
+                                        
+                    class A {
+                        private int m(Util util) {
+                            Util other = new Util();
+                            return util.size() + other.size() + Util.CONSTANT + Util.size(util);
+                        }
+                    }
+                    """, """
+                    import com.example.Util;
+                                        
+                    class A {
+                        private static int m(Util util) {
+                            Util other = new Util();
+                            return util.size() + other.size() + Util.CONSTANT + Util.size(util);
+                        }
+                    }
+                    """));
+        }
+
+        @Test
+        void staticAccessWithUnknownSuperclass() {
+            rewriteRun(spec -> spec.typeValidationOptions(TypeValidation.none()), java("""
+                    import com.example.Base;
+                                        
+                    class A extends Base {
+                        private int m(String s) {
+                            return s.length() + Base.CONSTANT;
+                        }
+                    }
+                    """, """
+                    import com.example.Base;
+                                        
+                    class A extends Base {
+                        private static int m(String s) {
+                            return s.length() + Base.CONSTANT;
+                        }
+                    }
+                    """));
+        }
+    }
+
+    @Nested
+    class DecisionSinks {
+        private static final String BEFORE = """
+                class A {
+                    int field = 0;
+                    
+                    private int read() {
+                        return field;
+                    }
+                    
+                    private int callRead() {
+                        return read();
+                    }
+                    
+                    private int pure() {
+                        return 0;
+                    }
+                }
+                """;
+
+        private static final String AFTER = """
+                class A {
+                    int field = 0;
+                    
+                    private int read() {
+                        return field;
+                    }
+                    
+                    private int callRead() {
+                        return read();
+                    }
+                    
+                    private static int pure() {
+                        return 0;
+                    }
+                }
+                """;
+
+        @Test
+        void jsonLines() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ExecutionContext ctx = new InMemoryExecutionContext();
+            DecisionSink.register(ctx, new JsonLinesDecisionSink(out));
+
+            // The second cycle sees the same file again, its decisions are not sent twice
+            rewriteRun(spec -> spec.recipeExecutionContext(ctx), java(BEFORE, AFTER, spec -> spec.path("src/main/java/A.java")));
+
+            assertThat(out.toString(StandardCharsets.UTF_8).lines()).containsExactly(
+                    "{\"repository\":\"\",\"sourcePath\":\"src/main/java/A.java\",\"className\":\"A\",\"methodSignature\":\"A read()\",\"decision\":\"INSTANCE_ACCESS\",\"executionSamples\":0}",
+                    "{\"repository\":\"\",\"sourcePath\":\"src/main/java/A.java\",\"className\":\"A\",\"methodSignature\":\"A callRead()\",\"decision\":\"BLOCKED\",\"blockedBy\":\"A read()\",\"executionSamples\":0}",
+                    "{\"repository\":\"\",\"sourcePath\":\"src/main/java/A.java\",\"className\":\"A\",\"methodSignature\":\"A pure()\",\"decision\":\"STATIC\",\"executionSamples\":0}");
+        }
+
+        @Test
+        void binary() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ExecutionContext ctx = new InMemoryExecutionContext();
+            DecisionSink.register(ctx, new BinaryDecisionSink(out));
+
+            rewriteRun(spec -> spec.recipeExecutionContext(ctx), java(BEFORE, AFTER, spec -> spec.path("src/main/java/A.java")));
+
+            InputStream in = new ByteArrayInputStream(out.toByteArray());
+            List<MethodDecision> decisions = new ArrayList<>();
+            for (MethodDecision decision = BinaryDecisionSink.read(in); decision != null; decision = BinaryDecisionSink.read(in)) {
+                decisions.add(decision);
+            }
+            assertThat(decisions).containsExactly(
+                    new MethodDecision("", "src/main/java/A.java", "A", "A read()", MethodDecision.Decision.INSTANCE_ACCESS, null, 0),
+                    new MethodDecision("", "src/main/java/A.java", "A", "A callRead()", MethodDecision.Decision.BLOCKED, "A read()", 0),
+                    new MethodDecision("", "src/main/java/A.java", "A", "A pure()", MethodDecision.Decision.STATIC, null, 0));
+        }
+
+        @Test
+        void noSink() {
+            rewriteRun(java(BEFORE, AFTER));
+        }
+    }
+
+    @Nested
+    class EffectivelyFinalClasses {
+        @Test
+        void finalClass() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeFinalClassMethodsStatic(true)),
+                    java("""
+                            final class A {
+                                int field = 0;
+                        
+                                public int read() {
+                                    return field;
+                                }
+                        
+                                public int twice(int i) {
+                                    return add(i, i);
+                                }
+                        
+                                int add(int a, int b) {
+                                    return a + b;
+                                }
+                        
+                                <T> T identity(T t) {
+                                    return t;
+                                }
+                            }
+                            """, """
+                            final class A {
+                                int field = 0;
+                        
+                                public int read() {
+                                    return field;
+                                }
+                        
+                                public static int twice(int i) {
+                                    return add(i, i);
+                                }
+                        
+                                static int add(int a, int b) {
+                                    return a + b;
+                                }
+                        
+                                static <T> T identity(T t) {
+                                    return t;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void enumAndRecord() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeFinalClassMethodsStatic(true)),
+                    java("""
+                            enum E {
+                                A, B;
+                        
+                                String label(String s) {
+                                    return s.toUpperCase();
+                                }
+                            }
+                            """, """
+                            enum E {
+                                A, B;
+                        
+                                static String label(String s) {
+                                    return s.toUpperCase();
+                                }
+                            }
+                            """), java("""
+                            record R(int a) {
+                                int sum(int b) {
+                                    return a + b;
+                                }
+                        
+                                int twice(int b) {
+                                    return b * 2;
+                                }
+                            }
+                            """, """
+                            record R(int a) {
+                                int sum(int b) {
+                                    return a + b;
+                                }
+                        
+                                static int twice(int b) {
+                                    return b * 2;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void enumWithConstantBodies() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeFinalClassMethodsStatic(true)),
+                    java("""
+                            enum E {
+                                A {
+                                    @Override
+                                    int value() {
+                                        return 1;
+                                    }
+                                },
+                                B;
+                        
+                                int value() {
+                                    return 0;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void overridingMethods() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeFinalClassMethodsStatic(true)),
+                    java("""
+                            import java.util.function.Function;
+                    
+                            final class A implements Function<String, Integer> {
+                                public Integer apply(String s) {
+                                    return s.length();
+                                }
+                        
+                                public String toString() {
+                                    return "A";
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void annotatedMethods() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeFinalClassMethodsStatic(true)),
+                    java("""
+                            final class A {
+                                @Deprecated
+                                int zero() {
+                                    return 0;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void unboundMethodReference() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeFinalClassMethodsStatic(true)),
+                    java("""
+                            import java.util.function.Function;
+                    
+                            final class A {
+                                int zero() {
+                                    return 0;
+                                }
+                        
+                                private static Function<A, Integer> zeroFunction() {
+                                    return A::zero;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void boundMethodReference() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeFinalClassMethodsStatic(true)),
+                    java("""
+                            import java.util.function.Supplier;
+                    
+                            final class F {
+                                int m() {
+                                    return 1;
+                                }
+                        
+                                private int n() {
+                                    return 2;
+                                }
+                        
+                                Supplier<Integer> s(F f) {
+                                    return f::m;
+                                }
+                        
+                                Supplier<Integer> t(F f) {
+                                    return f::n;
+                                }
+                            }
+                            """, """
+                            import java.util.function.Supplier;
+                    
+                            final class F {
+                                int m() {
+                                    return 1;
+                                }
+                        
+                                private int n() {
+                                    return 2;
+                                }
+                        
+                                static Supplier<Integer> s(F f) {
+                                    return f::m;
+                                }
+                        
+                                static Supplier<Integer> t(F f) {
+                                    return f::n;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void nonPrivateMethodsKeptByDefault() {
+            rewriteRun(java("""
+                    final class A {
+                        public int twice(int x) {
+                            return x * 2;
+                        }
+                        
+                        int add(int a, int b) {
+                            return a + b;
+                        }
+                        
+                        private int square(int x) {
+                            return x * x;
+                        }
+                    }
+                    
+                    enum E {
+                        X;
+                        
+                        String label(String s) {
+                            return s.toUpperCase();
+                        }
+                    }
+                    
+                    record R(int a) {
+                        public String getType() {
+                            return "R";
+                        }
+                    }
+                    """, """
+                    final class A {
+                        public int twice(int x) {
+                            return x * 2;
+                        }
+                        
+                        int add(int a, int b) {
+                            return a + b;
+                        }
+                        
+                        private static int square(int x) {
+                            return x * x;
+                        }
+                    }
+                    
+                    enum E {
+                        X;
+                        
+                        String label(String s) {
+                            return s.toUpperCase();
+                        }
+                    }
+                    
+                    record R(int a) {
+                        public String getType() {
+                            return "R";
+                        }
+                    }
+                    """));
+        }
+
+        @Test
+        void finalClassNestedInPrivateClass() {
+            rewriteRun(java("""
+                    class A {
+                        private static class B {
+                            static final class C {
+                                public int twice(int x) {
+                                    return x * 2;
+                                }
+                            }
+                        }
+                    }
+                    """, """
+                    class A {
+                        private static class B {
+                            static final class C {
+                                public static int twice(int x) {
+                                    return x * 2;
+                                }
+                            }
+                        }
+                    }
+                    """));
+        }
+
+        @Test
+        void privateNestedClassNotExtended() {
+            rewriteRun(java("""
+                    class A {
+                        private static class B {
+                            int zero() {
+                                return 0;
+                            }
+                        }
+                    }
+                    """, """
+                    class A {
+                        private static class B {
+                            static int zero() {
+                                return 0;
+                            }
+                        }
+                    }
+                    """));
+        }
+
+        @Test
+        void privateNestedClassExtended() {
+            rewriteRun(java("""
+                    class A {
+                        private static class B {
+                            int zero() {
+                                return 0;
+                            }
+                        }
+                        
+                        private static class C extends B {
+                            @Override
+                            int zero() {
+                                return 1;
+                            }
+                        }
+                    }
+                    """));
+        }
+
+        @Test
+        void privateNestedClassExtendedByAnonymousClass() {
+            rewriteRun(java("""
+                    class A {
+                        private static class B {
+                            int zero() {
+                                return 0;
+                            }
+                        }
+                        
+                        private static final B ONE = new B() {
+                            @Override
+                            int zero() {
+                                return 1;
+                            }
+                        };
+                    }
+                    """));
+        }
+    }
+
+    @Nested
+    class ExecutionProfiles {
+        // Runs for real in the tests, and the recipe is run on a copy of its source
+        static final class Profiled {
+            long hot(long n) {
+                long sum = 0;
+                for (long i = 0; i < n; i++) {
+                    sum += helper(i);
+                }
+                return sum;
+            }
+
+            long helper(long i) {
+                return i ^ (i >>> 3);
+            }
+
+            long cold() {
+                return 0;
+            }
+        }
+
+        private static final String SOURCE = """
+                package io.moderne.recipes;
+                
+                class NonOverridableMethodsNoInstanceDataToStaticRecipeTest {
+                    class ExecutionProfiles {
+                        static final class Profiled {
+                            long hot(long n) {
+                                long sum = 0;
+                                for (long i = 0; i < n; i++) {
+                                    sum += helper(i);
+                                }
+                                return sum;
+                            }
+                
+                            long helper(long i) {
+                                return i ^ (i >>> 3);
+                            }
+                
+                            long cold() {
+                                return 0;
+                            }
+                        }
+                    }
+                }
+                """;
+
+        @TempDir
+        Path tempDir;
+
+        // Samples are taken at the mercy of the scheduler, so the workload is recorded again until `hot` was sampled
+        private String record() throws IOException {
+            Path recording = tempDir.resolve("profile.jfr");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            do {
+                try (Recording profile = new Recording()) {
+                    profile.enable("jdk.ExecutionSample").withPeriod(Duration.ofMillis(1));
+                    profile.start();
+                    Profiled profiled = new Profiled();
+                    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+                    long sum = 0;
+                    while (System.nanoTime() < end) {
+                        sum += profiled.hot(100_000);
+                    }
+                    assertThat(sum).isNotZero();
+                    profile.stop();
+                    profile.dump(recording);
+                }
+                if (sampled(recording, "hot")) {
+                    return recording.toString();
+                }
+            } while (System.nanoTime() < deadline);
+            throw new AssertionError("No execution sample of Profiled.hot was recorded");
+        }
+
+        private boolean sampled(Path recording, String methodName) throws IOException {
+            for (RecordedEvent event : RecordingFile.readAllEvents(recording)) {
+                if (event.getStackTrace() != null && event.getStackTrace().getFrames().stream()
+                        .anyMatch(frame -> frame.getMethod().getType().getName().equals(Profiled.class.getName()) &&
+                                           frame.getMethod().getName().equals(methodName))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Test
+        void onlyHotMethods() throws IOException {
+            String profile = record();
+            rewriteRun(spec -> spec
+                            .recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeFinalClassMethodsStatic(true).withExecutionProfile(profile).withMinExecutionSamples(1))
+                            .cycles(1).expectedCyclesThatMakeChanges(1)
+                            .dataTable(PerformanceImpact.Row.class, rows -> assertThat(rows)
+                                    .singleElement()
+                                    .satisfies(row -> {
+                                        assertThat(row.getClassName()).isEqualTo("io.moderne.recipes.NonOverridableMethodsNoInstanceDataToStaticRecipeTest$ExecutionProfiles$Profiled");
+                                        assertThat(row.getStaticCallSites()).isEqualTo(1);
+                                        assertThat(row.getExecutionSamples()).isPositive();
+                                    })),
+                    java(SOURCE, SOURCE
+                            .replace("long hot(", "static long hot(")
+                            .replace("long helper(", "static long helper(")));
+        }
+
+        @Test
+        void withoutMinimum() throws IOException {
+            String profile = record();
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeFinalClassMethodsStatic(true).withExecutionProfile(profile)),
+                    java(SOURCE, SOURCE
+                            .replace("long hot(", "static long hot(")
+                            .replace("long helper(", "static long helper(")
+                            .replace("long cold(", "static long cold(")));
+        }
+
+        @Test
+        void minimumRequiresProfile() throws IOException {
+            assertThat(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMinExecutionSamples(1).validate().isInvalid()).isTrue();
+            assertThat(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withExecutionProfile(tempDir.resolve("missing.jfr").toString()).validate().isInvalid()).isTrue();
+            Path notARecording = Files.writeString(tempDir.resolve("profile.jfr"), "not a recording");
+            assertThat(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withExecutionProfile(notARecording.toString()).validate().isInvalid()).isTrue();
+        }
+    }
+
+    @Nested
+    class FileResults {
+        private final List<J.CompilationUnit> sources = JavaParser.fromJavaVersion().build().parse("""
+                class A {
+                    private int zero() {
+                        return 0;
+                    }
+                    
+                    private int one() {
+                        return zero() + 1;
+                    }
+                }
+                """, """
+                class B {
+                    int b = 0;
+                    
+                    private int get() {
+                        return b;
+                    }
+                }
+                """);
+
+        // Requests one result at a time, and as many as allowed
+        private class Subscriber implements Flow.Subscriber<FileResult> {
+            final List<FileResult> results = new ArrayList<>();
+            final int max;
+            boolean completed;
+            Flow.Subscription subscription;
+
+            Subscriber(int max) {
+                this.max = max;
+            }
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(FileResult result) {
+                results.add(result);
+                if (results.size() < max) {
+                    subscription.request(1);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                throw new AssertionError(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                completed = true;
+            }
+        }
+
+        @Test
+        void resultPerFile() {
+            Subscriber subscriber = new Subscriber(Integer.MAX_VALUE);
+            new FileResultPublisher(new NonOverridableMethodsNoInstanceDataToStaticRecipe(), sources, Runnable::run, Throwable::printStackTrace)
+                    .subscribe(subscriber);
+
+            assertThat(subscriber.completed).isTrue();
+            assertThat(subscriber.results).hasSize(2);
+
+            FileResult a = subscriber.results.get(0);
+            assertThat(a.isChanged()).isTrue();
+            assertThat(a.getDiff()).contains("+    private static int zero() {", "+    private static int one() {");
+            assertThat(a.getDecisions()).extracting(MethodDecision::getMethodSignature, MethodDecision::getDecision)
+                    .containsExactly(tuple("A zero()", MethodDecision.Decision.STATIC), tuple("A one()", MethodDecision.Decision.STATIC));
+            assertThat(a.getPerformanceImpact()).extracting(PerformanceImpact.Row::getClassName, PerformanceImpact.Row::getStaticCallSites)
+                    .containsExactly(tuple("A", 1));
+
+            FileResult b = subscriber.results.get(1);
+            assertThat(b.isChanged()).isFalse();
+            assertThat(b.getDiff()).isEmpty();
+            assertThat(b.getDecisions()).extracting(MethodDecision::getDecision).containsExactly(MethodDecision.Decision.INSTANCE_ACCESS);
+            assertThat(b.getPerformanceImpact()).isEmpty();
+        }
+
+        @Test
+        void onlyRequestedFilesAreProcessed() {
+            Subscriber subscriber = new Subscriber(1);
+            new FileResultPublisher(new NonOverridableMethodsNoInstanceDataToStaticRecipe(), sources, Runnable::run, Throwable::printStackTrace)
+                    .subscribe(subscriber);
+
+            assertThat(subscriber.results).extracting(result -> result.getBefore().getSourcePath().toString()).containsExactly("A.java");
+            assertThat(subscriber.completed).isFalse();
+
+            subscriber.subscription.request(5);
+            assertThat(subscriber.results).hasSize(2);
+            assertThat(subscriber.completed).isTrue();
+        }
+
+        @Test
+        void invalidRequestFailsAfterOnNext() {
+            List<String> signals = new ArrayList<>();
+            Subscriber subscriber = new Subscriber(Integer.MAX_VALUE) {
+                @Override
+                public void onNext(FileResult result) {
+                    signals.add("onNext start");
+                    subscription.request(0);
+                    signals.add("onNext end");
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    signals.add("onError " + throwable.getClass().getSimpleName());
+                }
+            };
+            new FileResultPublisher(new NonOverridableMethodsNoInstanceDataToStaticRecipe(), sources, Runnable::run, Throwable::printStackTrace)
+                    .subscribe(subscriber);
+
+            assertThat(signals).containsExactly("onNext start", "onNext end", "onError IllegalArgumentException");
+            assertThat(subscriber.completed).isFalse();
+        }
+    }
+
+    @Nested
+    class AnonymousClassesToLambdas {
+        @Test
+        void expressionLambda() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withConvertAnonymousClassesToLambdas(true)),
+                    java("""
+                            import java.util.Comparator;
+                            import java.util.List;
+                            
+                            class A {
+                                public void sort(List<String> list) {
+                                    list.sort(new Comparator<String>() {
+                                        @Override
+                                        public int compare(String a, String b) {
+                                            return a.length() - b.length();
+                                        }
+                                    });
+                                }
+                            }
+                            """, """
+                            import java.util.Comparator;
+                            import java.util.List;
+                            
+                            class A {
+                                public void sort(List<String> list) {
+                                    list.sort((String a, String b) -> a.length() - b.length());
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void blockLambdaUsingMethodBecomingStatic() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withConvertAnonymousClassesToLambdas(true)),
+                    java("""
+                            class A {
+                                public Runnable task() {
+                                    return new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            log("start");
+                                            System.out.println("done");
+                                        }
+                                    };
+                                }
+                                
+                                private void log(String message) {
+                                    System.out.println(message);
+                                }
+                            }
+                            """, """
+                            class A {
+                                public Runnable task() {
+                                    return () -> {
+                                        log("start");
+                                        System.out.println("done");
+                                    };
+                                }
+                                
+                                private static void log(String message) {
+                                    System.out.println(message);
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void staticMethodReference() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withConvertAnonymousClassesToLambdas(true)),
+                    java("""
+                            import java.util.Comparator;
+                            
+                            class A {
+                                private final Comparator<String> comparator = new Comparator<String>() {
+                                    @Override
+                                    public int compare(String a, String b) {
+                                        return Lengths.compare(a, b);
+                                    }
+                                };
+                            }
+                            
+                            class Lengths {
+                                static int compare(String a, String b) {
+                                    return a.length() - b.length();
+                                }
+                            }
+                            """, """
+                            import java.util.Comparator;
+                            
+                            class A {
+                                private final Comparator<String> comparator = Lengths::compare;
+                            }
+                            
+                            class Lengths {
+                                static int compare(String a, String b) {
+                                    return a.length() - b.length();
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void capturingAnonymousClassesUnchanged() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withConvertAnonymousClassesToLambdas(true)),
+                    java("""
+                            class A {
+                                private int count;
+                                
+                                public Runnable increment() {
+                                    return new Runnable() {
+                                        public void run() {
+                                            count++;
+                                        }
+                                    };
+                                }
+                                
+                                public Runnable print(String message) {
+                                    return new Runnable() {
+                                        public void run() {
+                                            System.out.println(message);
+                                        }
+                                    };
+                                }
+                                
+                                public Runnable self() {
+                                    return new Runnable() {
+                                        public void run() {
+                                            System.out.println(this);
+                                        }
+                                    };
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void lambdaWouldNotCompile() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withConvertAnonymousClassesToLambdas(true)),
+                    java("""
+                            import java.util.concurrent.Callable;
+                            import java.util.concurrent.ExecutorService;
+                            import java.util.function.Consumer;
+                            
+                            class A {
+                                public void submit(ExecutorService executor) {
+                                    executor.submit(new Runnable() {
+                                        public void run() {
+                                            System.out.println();
+                                        }
+                                    });
+                                }
+                                
+                                public Consumer<String> shadowing(String s) {
+                                    return new Consumer<String>() {
+                                        public void accept(String s) {
+                                            System.out.println(s);
+                                        }
+                                    };
+                                }
+                                
+                                public void inferred() {
+                                    var task = new Runnable() {
+                                        public void run() {
+                                            System.out.println();
+                                        }
+                                    };
+                                    task.run();
+                                }
+                                
+                                public Object untyped() {
+                                    return new Runnable() {
+                                        public void run() {
+                                            System.out.println();
+                                        }
+                                    };
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void notFunctionalInterfaceUnchanged() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withConvertAnonymousClassesToLambdas(true)),
+                    java("""
+                            import java.util.Iterator;
+                            
+                            class A {
+                                public Iterator<String> empty() {
+                                    return new Iterator<String>() {
+                                        public boolean hasNext() {
+                                            return false;
+                                        }
+                                        
+                                        public String next() {
+                                            return null;
+                                        }
+                                    };
+                                }
+                                
+                                public Runnable stateful() {
+                                    return new Runnable() {
+                                        private int runs;
+                                        
+                                        public void run() {
+                                            runs++;
+                                        }
+                                    };
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void interfaceWithDefaultMethods() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withConvertAnonymousClassesToLambdas(true)),
+                    java("""
+                            import java.util.function.Predicate;
+                            
+                            class A {
+                                public Predicate<String> blank() {
+                                    return new Predicate<String>() {
+                                        public boolean test(String s) {
+                                            return s.isBlank();
+                                        }
+                                    };
+                                }
+                                
+                                public Predicate<String> notBlank() {
+                                    return new Predicate<String>() {
+                                        public boolean test(String s) {
+                                            return negate().test(s);
+                                        }
+                                    };
+                                }
+                            }
+                            """, """
+                            import java.util.function.Predicate;
+                            
+                            class A {
+                                public Predicate<String> blank() {
+                                    return (String s) -> s.isBlank();
+                                }
+                                
+                                public Predicate<String> notBlank() {
+                                    return new Predicate<String>() {
+                                        public boolean test(String s) {
+                                            return negate().test(s);
+                                        }
+                                    };
+                                }
+                            }
+                            """));
+        }
+    }
+
+    @Nested
+    class UtilityClassInstantiations {
+        @Test
+        void instantiationRemoved() {
+            rewriteRun(spec -> spec
+                            .recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeFinalClassMethodsStatic(true).withRemoveUtilityClassInstantiations(true))
+                            .cycles(1).expectedCyclesThatMakeChanges(1)
+                            .dataTable(UtilityClasses.Row.class, rows -> assertThat(rows)
+                                    .containsExactly(new UtilityClasses.Row("A.java", "Helper", 2)))
+                            .dataTable(PerformanceImpact.Row.class, rows -> assertThat(rows)
+                                    .filteredOn(row -> row.getClassName().equals("A"))
+                                    .extracting(PerformanceImpact.Row::getAllocationsRemoved, PerformanceImpact.Row::getReceiverEvaluationsRemoved)
+                                    .containsExactly(tuple(2, 0))),
+                    java("""
+                            class A {
+                                int twice(int x) {
+                                    return new Helper().compute(x) + new Helper().describe().length();
+                                }
+                            }
+                            
+                            final class Helper {
+                                static final int FACTOR = 2;
+                                
+                                int compute(int x) {
+                                    return x * FACTOR;
+                                }
+                                
+                                static String describe() {
+                                    return "twice";
+                                }
+                            }
+                            """, """
+                            class A {
+                                int twice(int x) {
+                                    return Helper.compute(x) + Helper.describe().length();
+                                }
+                            }
+                            
+                            final class Helper {
+                                static final int FACTOR = 2;
+                                
+                                static int compute(int x) {
+                                    return x * FACTOR;
+                                }
+                                
+                                static String describe() {
+                                    return "twice";
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void stillInstantiatedNotReported() {
+            rewriteRun(spec -> spec
+                            .recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeFinalClassMethodsStatic(true).withRemoveUtilityClassInstantiations(true))
+                            .cycles(1).expectedCyclesThatMakeChanges(1)
+                            .dataTable(UtilityClasses.Row.class, rows -> assertThat(rows).isEmpty()),
+                    java("""
+                            class A {
+                                Object helper = new Helper();
+                                
+                                int twice(int x) {
+                                    return new Helper().compute(x);
+                                }
+                            }
+                            
+                            final class Helper {
+                                int compute(int x) {
+                                    return x * 2;
+                                }
+                            }
+                            """, """
+                            class A {
+                                Object helper = new Helper();
+                                
+                                int twice(int x) {
+                                    return Helper.compute(x);
+                                }
+                            }
+                            
+                            final class Helper {
+                                static int compute(int x) {
+                                    return x * 2;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void instantiationWithSideEffectsKept() {
+            rewriteRun(spec -> spec.recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeFinalClassMethodsStatic(true).withRemoveUtilityClassInstantiations(true)).cycles(1).expectedCyclesThatMakeChanges(1),
+                    java("""
+                            class A {
+                                int first(int x) {
+                                    return new Counting().compute(x);
+                                }
+                                
+                                int second(int x) {
+                                    return new Stateful().compute(x);
+                                }
+                                
+                                int third(int x) {
+                                    return new Mixed().compute(x);
+                                }
+                            }
+                            
+                            final class Counting {
+                                static int created;
+                                
+                                Counting() {
+                                    created++;
+                                }
+                                
+                                int compute(int x) {
+                                    return x * 2;
+                                }
+                            }
+                            
+                            final class Stateful {
+                                final Object lock = new Object();
+                                
+                                int compute(int x) {
+                                    return x * 2;
+                                }
+                            }
+                            
+                            class Mixed {
+                                int compute(int x) {
+                                    return x * 2;
+                                }
+                            }
+                            """, """
+                            class A {
+                                int first(int x) {
+                                    return new Counting().compute(x);
+                                }
+                                
+                                int second(int x) {
+                                    return new Stateful().compute(x);
+                                }
+                                
+                                int third(int x) {
+                                    return new Mixed().compute(x);
+                                }
+                            }
+                            
+                            final class Counting {
+                                static int created;
+                                
+                                Counting() {
+                                    created++;
+                                }
+                                
+                                static int compute(int x) {
+                                    return x * 2;
+                                }
+                            }
+                            
+                            final class Stateful {
+                                final Object lock = new Object();
+                                
+                                static int compute(int x) {
+                                    return x * 2;
+                                }
+                            }
+                            
+                            class Mixed {
+                                int compute(int x) {
+                                    return x * 2;
+                                }
+                            }
+                            """));
+        }
+
+        @Test
+        void disabledByDefault() {
+            rewriteRun(spec -> spec
+                            .recipe(new NonOverridableMethodsNoInstanceDataToStaticRecipe().withMakeFinalClassMethodsStatic(true))
+                            .cycles(1).expectedCyclesThatMakeChanges(1)
+                            .dataTable(UtilityClasses.Row.class, rows -> assertThat(rows).isEmpty()),
+                    java("""
+                            class A {
+                                int twice(int x) {
+                                    return new Helper().compute(x);
+                                }
+                            }
+                            
+                            final class Helper {
+                                int compute(int x) {
+                                    return x * 2;
+                                }
+                            }
+                            """, """
+                            class A {
+                                int twice(int x) {
+                                    return new Helper().compute(x);
+                                }
+                            }
+                            
+                            final class Helper {
+                                static int compute(int x) {
+                                    return x * 2;
+                                }
+                            }
+                            """));
+        }
+    }
+}